@@ -14,7 +14,9 @@ public class MainServer {
     public static void main(String[] args) throws DateTimeFormatException, IOException, OrderOfArgumentsException, ValidationException, JAXBException {
 //  Start server
         logger.info("Server starting...");
-        new ClassPathXmlApplicationContext("app-context-server.xml");
+        ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("app-context-server.xml");
+//  destroy methods write the last snapshot and close the storage on shutdown
+        context.registerShutdownHook();
         logger.info("Server started.");
     }
 }
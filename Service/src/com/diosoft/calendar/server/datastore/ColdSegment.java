@@ -0,0 +1,298 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Immutable read-optimized tier of past events. Every event is a BinaryEventCodec record in one direct buffer
+ * out of the heap, records are ordered by (startDate, endDate, id). Only primitive arrays are kept on heap:
+ * start and end of every record with the running maximum of ends for period queries, ids and content digests
+ * sorted for binary search, distinct titles sorted with their records, and records of every attender.
+ * An event is decoded only when it is returned. Queries take a filter of live ids,
+ * records rejected by it are not decoded.
+ */
+final class ColdSegment {
+
+    /**
+     * Order of the date index: startDate, endDate, id
+     */
+    static final Comparator<Event> BY_START = new Comparator<Event>() {
+        @Override
+        public int compare(Event o1, Event o2) {
+            int result = o1.getStartDate().compareTo(o2.getStartDate());
+            if (result != 0) return result;
+            result = o1.getEndDate().compareTo(o2.getEndDate());
+            return result != 0 ? result : o1.getId().compareTo(o2.getId());
+        }
+    };
+
+    private static final int INITIAL_RECORD_SIZE = 128;
+
+    static final ColdSegment EMPTY = build(Collections.<Event>emptyList());
+
+    private final ByteBuffer records;
+    private final int[] offsets;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] maxEnds;
+    private final long[] idMost;
+    private final long[] idLeast;
+    private final int[] idRecords;
+    private final long[] digestHigh;
+    private final long[] digestLow;
+    private final int[] digestRecords;
+//  records of titles[i] are titleRecords[titleFirst[i]] .. titleRecords[titleFirst[i + 1] - 1]
+    private final String[] titles;
+    private final int[] titleFirst;
+    private final int[] titleRecords;
+    private final Map<Person, int[]> attenderRecords;
+
+    private ColdSegment(List<Event> events) {
+        int count = events.size();
+        offsets = new int[count + 1];
+        starts = new long[count];
+        ends = new long[count];
+        maxEnds = new long[count];
+        records = encode(events);
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            Event event = events.get(i);
+            starts[i] = IntervalTree.toSeconds(event.getStartDate());
+            ends[i] = IntervalTree.toSeconds(event.getEndDate());
+            maxEnd = Math.max(maxEnd, ends[i]);
+            maxEnds[i] = maxEnd;
+        }
+
+        Integer[] byId = positions(count);
+        Arrays.sort(byId, (i, j) -> events.get(i).getId().compareTo(events.get(j).getId()));
+        idMost = new long[count];
+        idLeast = new long[count];
+        idRecords = new int[count];
+        for (int i = 0; i < count; i++) {
+            UUID id = events.get(byId[i]).getId();
+            idMost[i] = id.getMostSignificantBits();
+            idLeast[i] = id.getLeastSignificantBits();
+            idRecords[i] = byId[i];
+        }
+
+        EventDigest[] digests = new EventDigest[count];
+        for (int i = 0; i < count; i++) digests[i] = EventDigest.of(events.get(i));
+        Integer[] byDigest = positions(count);
+        Arrays.sort(byDigest, (i, j) -> compare(digests[i].high(), digests[i].low(), digests[j].high(), digests[j].low()));
+        digestHigh = new long[count];
+        digestLow = new long[count];
+        digestRecords = new int[count];
+        for (int i = 0; i < count; i++) {
+            digestHigh[i] = digests[byDigest[i]].high();
+            digestLow[i] = digests[byDigest[i]].low();
+            digestRecords[i] = byDigest[i];
+        }
+
+        TreeMap<String, List<Integer>> recordsOfTitle = new TreeMap<String, List<Integer>>();
+        Map<Person, List<Integer>> recordsOfAttender = new HashMap<Person, List<Integer>>();
+        for (int i = 0; i < count; i++) {
+            Event event = events.get(i);
+            recordsOfTitle.computeIfAbsent(event.getTitle(), title -> new ArrayList<Integer>()).add(i);
+            for (Person attender : event.getAttenders()) {
+                recordsOfAttender.computeIfAbsent(attender, person -> new ArrayList<Integer>()).add(i);
+            }
+        }
+        titles = recordsOfTitle.keySet().toArray(new String[recordsOfTitle.size()]);
+        titleFirst = new int[titles.length + 1];
+        titleRecords = new int[count];
+        int next = 0;
+        for (int i = 0; i < titles.length; i++) {
+            titleFirst[i] = next;
+            for (int record : recordsOfTitle.get(titles[i])) titleRecords[next++] = record;
+        }
+        titleFirst[titles.length] = next;
+        attenderRecords = new HashMap<Person, int[]>();
+        for (Map.Entry<Person, List<Integer>> entry : recordsOfAttender.entrySet()) {
+            int[] positions = new int[entry.getValue().size()];
+            for (int i = 0; i < positions.length; i++) positions[i] = entry.getValue().get(i);
+            attenderRecords.put(entry.getKey(), positions);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the records don't fit into one buffer of 2 GB
+     */
+    static ColdSegment build(Collection<Event> events) {
+        List<Event> sorted = new ArrayList<Event>(events);
+        Collections.sort(sorted, BY_START);
+        return new ColdSegment(sorted);
+    }
+
+    int size() {
+        return starts.length;
+    }
+
+    long getOffHeapBytes() {
+        return records.capacity();
+    }
+
+    /**
+     * @return event or null if there is no record of the id
+     */
+    Event get(UUID id) {
+        int i = find(id);
+        return i < 0 ? null : decode(idRecords[i]);
+    }
+
+    boolean contains(UUID id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * @return ids of records with the content of the event accepted by the filter, usually one or none
+     */
+    List<UUID> findContent(Event event, Predicate<UUID> live) {
+        List<UUID> ids = new ArrayList<UUID>();
+        if (size() == 0) return ids;
+        EventDigest digest = EventDigest.of(event);
+        int low = 0;
+        int high = digestHigh.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(digestHigh[middle], digestLow[middle], digest.high(), digest.low()) < 0) low = middle + 1;
+            else high = middle;
+        }
+        for (int i = low; i < digestHigh.length && digestHigh[i] == digest.high() && digestLow[i] == digest.low(); i++) {
+            UUID id = decode(digestRecords[i]).getId();
+            if (live.test(id)) ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * @return events which have common points with the period [from, to], ordered by start date
+     */
+    List<Event> overlapping(LocalDateTime from, LocalDateTime to, Predicate<UUID> live) {
+        long fromSeconds = IntervalTree.toSeconds(from);
+        long toSeconds = IntervalTree.toSeconds(to);
+//  maxEnds is not decreasing, records before the first one which reaches from end before it
+        int low = 0;
+        int high = maxEnds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (maxEnds[middle] < fromSeconds) low = middle + 1;
+            else high = middle;
+        }
+        List<Event> events = new ArrayList<Event>();
+        for (int i = low; i < starts.length && starts[i] <= toSeconds; i++) {
+            if (ends[i] >= fromSeconds) addIfLive(events, i, live);
+        }
+        return events;
+    }
+
+    List<Event> byTitle(String title, Predicate<UUID> live) {
+        List<Event> events = new ArrayList<Event>();
+        int i = Arrays.binarySearch(titles, title);
+        if (i < 0) return events;
+        for (int j = titleFirst[i]; j < titleFirst[i + 1]; j++) addIfLive(events, titleRecords[j], live);
+        return events;
+    }
+
+    /**
+     * @return at most limit events with title starting with the prefix, ordered by title
+     */
+    List<Event> byTitlePrefix(String prefix, int limit, Predicate<UUID> live) {
+        List<Event> events = new ArrayList<Event>();
+        int i = Arrays.binarySearch(titles, prefix);
+        if (i < 0) i = -i - 1;
+        for (; i < titles.length && titles[i].startsWith(prefix); i++) {
+            for (int j = titleFirst[i]; j < titleFirst[i + 1]; j++) {
+                addIfLive(events, titleRecords[j], live);
+                if (events.size() == limit) return events;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * @return events of the attender which have common points with the period [from, to], ordered by start date
+     */
+    List<Event> byAttender(Person attender, LocalDateTime from, LocalDateTime to, Predicate<UUID> live) {
+        List<Event> events = new ArrayList<Event>();
+        int[] positions = attenderRecords.get(attender);
+        if (positions == null) return events;
+        long fromSeconds = IntervalTree.toSeconds(from);
+        long toSeconds = IntervalTree.toSeconds(to);
+        for (int position : positions) {
+            if (starts[position] <= toSeconds && ends[position] >= fromSeconds) addIfLive(events, position, live);
+        }
+        return events;
+    }
+
+    /**
+     * @return all events accepted by the filter, ordered by start date
+     */
+    List<Event> events(Predicate<UUID> live) {
+        List<Event> events = new ArrayList<Event>(size());
+        for (int i = 0; i < size(); i++) addIfLive(events, i, live);
+        return events;
+    }
+
+    @Override
+    public String toString() {
+        return "ColdSegment{events=" + size() + ", titles=" + titles.length + ", attenders=" + attenderRecords.size()
+                + ", offHeapBytes=" + getOffHeapBytes() + '}';
+    }
+
+    private int find(UUID id) {
+        int low = 0;
+        int high = idMost.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compare(idMost[middle], idLeast[middle], id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (result == 0) return middle;
+            if (result < 0) low = middle + 1;
+            else high = middle - 1;
+        }
+        return -1;
+    }
+
+    private void addIfLive(List<Event> events, int record, Predicate<UUID> live) {
+        Event event = decode(record);
+        if (live.test(event.getId())) events.add(event);
+    }
+
+    private Event decode(int record) {
+        return EventRecords.decode(records, offsets[record], offsets[record + 1] - offsets[record], "cold tier");
+    }
+
+    private ByteBuffer encode(List<Event> events) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1, events.size() * INITIAL_RECORD_SIZE));
+        for (int i = 0; i < events.size(); i++) {
+            byte[] record = EventRecords.encode(events.get(i));
+            if (buffer.remaining() < record.length) {
+                long capacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + record.length);
+                if (capacity > Integer.MAX_VALUE) throw new IllegalStateException("Cold tier doesn't fit into one buffer");
+                ByteBuffer larger = ByteBuffer.allocateDirect((int) capacity);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            offsets[i] = buffer.position();
+            buffer.put(record);
+        }
+        offsets[events.size()] = buffer.position();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static Integer[] positions(int count) {
+        Integer[] positions = new Integer[count];
+        for (int i = 0; i < count; i++) positions[i] = i;
+        return positions;
+    }
+
+    private static int compare(long high1, long low1, long high2, long low2) {
+        int result = Long.compare(high1, high2);
+        return result != 0 ? result : Long.compare(low1, low2);
+    }
+}
@@ -0,0 +1,158 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Immutable list of cold segments, oldest first. Every move to the cold tier adds one segment built of
+ * the moved events only, so the events which are already cold are neither decoded nor encoded again.
+ * An id may have records in several segments, the record of the newest segment shadows the older ones.
+ * Segments are merged into one by compact, which drops shadowed records and records rejected by the filter.
+ */
+final class ColdTier {
+
+    static final ColdTier EMPTY = new ColdTier(Collections.<ColdSegment>emptyList());
+
+    private final List<ColdSegment> segments;
+
+    private ColdTier(List<ColdSegment> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * @return tier with the segment added as the newest one
+     */
+    ColdTier with(ColdSegment segment) {
+        List<ColdSegment> next = new ArrayList<ColdSegment>(segments);
+        next.add(segment);
+        return new ColdTier(Collections.unmodifiableList(next));
+    }
+
+    /**
+     * @return tier of one segment with the live records of all segments
+     */
+    ColdTier compact(Predicate<UUID> live) {
+        return EMPTY.with(ColdSegment.build(events(live)));
+    }
+
+    int getSegments() {
+        return segments.size();
+    }
+
+    /**
+     * @return records of all segments, shadowed ones included
+     */
+    int size() {
+        int size = 0;
+        for (ColdSegment segment : segments) size += segment.size();
+        return size;
+    }
+
+    long getOffHeapBytes() {
+        long bytes = 0;
+        for (ColdSegment segment : segments) bytes += segment.getOffHeapBytes();
+        return bytes;
+    }
+
+    /**
+     * @return event of the newest record of the id or null if there is no record
+     */
+    Event get(UUID id) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Event event = segments.get(i).get(id);
+            if (event != null) return event;
+        }
+        return null;
+    }
+
+    boolean contains(UUID id) {
+        for (ColdSegment segment : segments) {
+            if (segment.contains(id)) return true;
+        }
+        return false;
+    }
+
+    List<UUID> findContent(Event event, Predicate<UUID> live) {
+        List<UUID> ids = new ArrayList<UUID>();
+        for (int i = 0; i < segments.size(); i++) ids.addAll(segments.get(i).findContent(event, newest(i, live)));
+        return ids;
+    }
+
+    List<Event> overlapping(LocalDateTime from, LocalDateTime to, Predicate<UUID> live) {
+        List<Event> events = Collections.emptyList();
+        for (int i = 0; i < segments.size(); i++) {
+            events = merge(events, segments.get(i).overlapping(from, to, newest(i, live)), ColdSegment.BY_START, Integer.MAX_VALUE);
+        }
+        return events;
+    }
+
+    List<Event> byTitle(String title, Predicate<UUID> live) {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < segments.size(); i++) events.addAll(segments.get(i).byTitle(title, newest(i, live)));
+        return events;
+    }
+
+    List<Event> byTitlePrefix(String prefix, int limit, Comparator<Event> byTitle, Predicate<UUID> live) {
+        List<Event> events = Collections.emptyList();
+        for (int i = 0; i < segments.size(); i++) {
+            events = merge(events, segments.get(i).byTitlePrefix(prefix, limit, newest(i, live)), byTitle, limit);
+        }
+        return events;
+    }
+
+    List<Event> byAttender(Person attender, LocalDateTime from, LocalDateTime to, Predicate<UUID> live) {
+        List<Event> events = Collections.emptyList();
+        for (int i = 0; i < segments.size(); i++) {
+            events = merge(events, segments.get(i).byAttender(attender, from, to, newest(i, live)), ColdSegment.BY_START, Integer.MAX_VALUE);
+        }
+        return events;
+    }
+
+    /**
+     * @return events of all live records which are not shadowed, ordered by start date
+     */
+    List<Event> events(Predicate<UUID> live) {
+        List<Event> events = Collections.emptyList();
+        for (int i = 0; i < segments.size(); i++) {
+            events = merge(events, segments.get(i).events(newest(i, live)), ColdSegment.BY_START, Integer.MAX_VALUE);
+        }
+        return events;
+    }
+
+    @Override
+    public String toString() {
+        return "ColdTier{segments=" + segments.size() + ", records=" + size() + ", offHeapBytes=" + getOffHeapBytes() + '}';
+    }
+
+    /**
+     * Merges two ordered lists, at most limit events
+     */
+    static List<Event> merge(List<Event> first, List<Event> second, Comparator<Event> order, int limit) {
+        if (second.isEmpty()) return first;
+        if (first.isEmpty() && second.size() <= limit) return second;
+        List<Event> events = new ArrayList<Event>(Math.min(limit, first.size() + second.size()));
+        int i = 0;
+        int j = 0;
+        while (events.size() < limit && (i < first.size() || j < second.size())) {
+            if (j == second.size() || (i < first.size() && order.compare(first.get(i), second.get(j)) <= 0)) events.add(first.get(i++));
+            else events.add(second.get(j++));
+        }
+        return events;
+    }
+
+//  live records of the segment which no newer segment shadows
+    private Predicate<UUID> newest(final int segment, final Predicate<UUID> live) {
+        if (segment == segments.size() - 1) return live;
+        return id -> {
+            if (!live.test(id)) return false;
+            for (int i = segment + 1; i < segments.size(); i++) {
+                if (segments.get(i).contains(id)) return false;
+            }
+            return true;
+        };
+    }
+}
@@ -0,0 +1,46 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+
+/**
+ * Key of the content index of DataStoreImpl, equal for events with the same content whatever their ids are.
+ * Events kept on heap are keyed by themselves, the others by EventDigest.
+ */
+abstract class ContentKey {
+
+    static ContentKey of(Event event) {
+        return new EventContent(event);
+    }
+
+    @Override
+    public abstract boolean equals(Object obj);
+
+    @Override
+    public abstract int hashCode();
+
+//  Event.equals ignores the id
+    private static final class EventContent extends ContentKey {
+        private final Event event;
+
+        EventContent(Event event) {
+            this.event = event;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof EventContent)) return false;
+            return event.equals(((EventContent) obj).event);
+        }
+
+        @Override
+        public int hashCode() {
+            return event.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return event.toString();
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.diosoft.calendar.server.common.Person;
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
 
@@ -60,6 +61,27 @@ public interface DataStore {
      */
     List<Event> getEventByAttender(Person attender) throws IllegalArgumentException;
 
+    /**
+     * Search events which have common points with the period [startDate, endDate] in one pass over date index,
+     * event which lasts several days is returned once.
+     * @param startDate
+     * @param endDate
+     * @return List of events ordered by start date
+     * @throws IllegalArgumentException
+     */
+    List<Event> getEventIntoPeriod(LocalDateTime startDate, LocalDateTime endDate) throws IllegalArgumentException;
+
+    /**
+     * Search events of given attender which have common points with the period [startDate, endDate].
+     * Uses timeline index of the attender, works in O(min(n, k log n)) for n events of the attender.
+     * @param attender
+     * @param startDate
+     * @param endDate
+     * @return List of events by attender ordered by start date
+     * @throws IllegalArgumentException
+     */
+    List<Event> getEventByAttenderIntoPeriod(Person attender, LocalDateTime startDate, LocalDateTime endDate) throws IllegalArgumentException;
+
     /**
      * Search event by title that starts with the prefix
      * @param prefix
@@ -67,4 +89,14 @@ public interface DataStore {
      * @throws IllegalArgumentException
      */
     List<Event> searchEventByTitleStartWith(String prefix) throws IllegalArgumentException;
+
+    /**
+     * Search event by title that starts with the prefix, ordered by title.
+     * Uses sorted index of titles.
+     * @param prefix
+     * @param limit maximum number of returned events, must be positive
+     * @return List of at most limit events
+     * @throws IllegalArgumentException
+     */
+    List<Event> searchEventByTitleStartWith(String prefix, int limit) throws IllegalArgumentException;
 }
@@ -2,69 +2,276 @@ package com.diosoft.calendar.server.datastore;
 
 import com.diosoft.calendar.server.common.Event;
 import com.diosoft.calendar.server.common.Person;
+import com.diosoft.calendar.server.exception.DataStoreLoadingException;
 import com.diosoft.calendar.server.exception.DateTimeFormatException;
+import com.diosoft.calendar.server.filesystem.AckPolicy;
 import com.diosoft.calendar.server.filesystem.FileSystem;
+import org.apache.log4j.Logger;
 
 import javax.xml.bind.JAXBException;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
-public class DataStoreImpl implements DataStore {
+/**
+ * Thread-safe data store. Writers of the same event id are serialized by a striped lock, readers never block:
+ * index entries are resolved through eventStore and checked against the event they point to.
+ */
+public class DataStoreImpl implements DataStore, Closeable {
+    private static final Logger logger = Logger.getLogger(DataStoreImpl.class);
 
-    private Map<UUID,Event> eventStore = new HashMap<UUID,Event>();
-    private Map<String, List<UUID>> indexTitle = new HashMap<String, List<UUID>>();
-    private Map<LocalDate, List<UUID>> indexDate = new HashMap<LocalDate, List<UUID>>();
-    private Map<Person, List<UUID>> indexAttender = new HashMap<Person, List<UUID>>();
+    private static final int LOCK_STRIPES = 64;
+//  change time of file may be rounded down by file system
+    private static final long SNAPSHOT_CLOCK_SLACK_MILLIS = 2000;
+    private static final int MAX_COLD_SEGMENTS = 8;
+    private static final Comparator<Event> BY_TITLE = new Comparator<Event>() {
+        @Override
+        public int compare(Event o1, Event o2) {
+            return o1.getTitle().compareTo(o2.getTitle());
+        }
+    };
+
+    private final EventStore eventStore;
+    private final ConcurrentMap<String, Set<UUID>> indexTitle = new ConcurrentHashMap<String, Set<UUID>>();
+//  sorted keys of indexTitle for prefix search, changed only inside compute() of indexTitle
+    private final NavigableSet<String> sortedTitles = new ConcurrentSkipListSet<String>();
+    private final IntervalTree indexDate = new IntervalTree();
+//  timeline of every attender, ordered by start date
+    private final ConcurrentMap<Person, IntervalTree> indexAttender = new ConcurrentHashMap<Person, IntervalTree>();
+//  content of event -> id, detects duplicates by one hash lookup; keys are made by eventStore
+    private final ConcurrentMap<ContentKey, UUID> indexContent = new ConcurrentHashMap<ContentKey, UUID>();
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+//  past events moved out of the maps above, replaced as a whole
+    private volatile ColdTier cold = ColdTier.EMPTY;
+//  ids whose records in cold are dead: the event was removed or published again, the mark is undone
+//  if the file system fails and dropped when the id is moved again or compacted away
+    private final Set<UUID> coldRemoved = ConcurrentHashMap.newKeySet();
+//  ids with publishes waiting for the file system and their number, such events are not moved to cold
+    private final ConcurrentMap<UUID, Integer> unacknowledged = new ConcurrentHashMap<UUID, Integer>();
+//  writers share the read lock and take it before the lock of the id, moving to cold tier takes the write lock
+    private final ReadWriteLock tierLock = new ReentrantReadWriteLock();
 
     private final FileSystem fileSystem;
+//  null if snapshots are not used
+    private final Path pathToSnapshot;
+    private final long snapshotPeriodSeconds;
+    private ScheduledExecutorService snapshotExecutor;
+    private final boolean warmUp;
+    private final long warmUpWaitMillis;
+//  events which end at or after loadedFrom are loaded, LocalDateTime.MIN when all events are loaded;
+//  changed under loadMonitor
+    private volatile LocalDateTime loadedFrom = LocalDateTime.MIN;
+    private volatile Throwable loadFailure;
+    private final Object loadMonitor = new Object();
+//  events which end before it are loaded after the others in warm-up mode
+    private LocalDateTime upcomingFrom;
+//  ids published during warm-up, their older versions are not loaded
+    private final Set<UUID> publishedDuringWarmUp = ConcurrentHashMap.newKeySet();
+    private final int coldHorizonDays;
+    private final long tieringPeriodSeconds;
+    private ScheduledExecutorService tieringExecutor;
 
     public DataStoreImpl(FileSystem fileSystem) {
+        this(fileSystem, null, 0);
+    }
+
+    public DataStoreImpl(FileSystem fileSystem, String pathToSnapshot, long snapshotPeriodSeconds) {
+        this(fileSystem, pathToSnapshot, snapshotPeriodSeconds, false, 0);
+    }
+
+    /**
+     * @param pathToSnapshot file of the snapshot, null to read all files on every start
+     * @param snapshotPeriodSeconds period of snapshots, 0 to write it only on start and close
+     * @param warmUp true to load events in background, initDataStoreFromXMLResources returns at once
+     * @param warmUpWaitMillis maximum wait of a query for events which are not loaded yet, 0 to throw at once
+     */
+    public DataStoreImpl(FileSystem fileSystem, String pathToSnapshot, long snapshotPeriodSeconds,
+                         boolean warmUp, long warmUpWaitMillis) {
+        this(fileSystem, pathToSnapshot, snapshotPeriodSeconds, warmUp, warmUpWaitMillis, EventStorage.HEAP, 0);
+    }
+
+    /**
+     * @param eventStorage where bodies of events are kept, pathToSnapshot must be null for INDEX_ONLY
+     *                     and AckPolicy of the file system must not be NONE
+     * @param maxCachedEvents maximum number of bodies kept on heap in INDEX_ONLY mode
+     */
+    public DataStoreImpl(FileSystem fileSystem, String pathToSnapshot, long snapshotPeriodSeconds,
+                         boolean warmUp, long warmUpWaitMillis, EventStorage eventStorage, int maxCachedEvents) {
+        this(fileSystem, pathToSnapshot, snapshotPeriodSeconds, warmUp, warmUpWaitMillis, eventStorage, maxCachedEvents, 0, 0);
+    }
+
+    /**
+     * @param coldHorizonDays events which ended more than this number of days ago are moved to the cold tier,
+     *                        0 to keep all events in the hot tier
+     * @param tieringPeriodSeconds period of moving events to the cold tier, the first move is done after loading
+     */
+    public DataStoreImpl(FileSystem fileSystem, String pathToSnapshot, long snapshotPeriodSeconds,
+                         boolean warmUp, long warmUpWaitMillis, EventStorage eventStorage, int maxCachedEvents,
+                         int coldHorizonDays, long tieringPeriodSeconds) {
+        if (fileSystem == null || snapshotPeriodSeconds < 0 || warmUpWaitMillis < 0 || eventStorage == null
+                || maxCachedEvents < 0 || (eventStorage == EventStorage.INDEX_ONLY && pathToSnapshot != null) || coldHorizonDays < 0
+//  bodies of INDEX_ONLY are read back from the file system as soon as it acknowledges them
+                || (eventStorage == EventStorage.INDEX_ONLY && fileSystem.getAckPolicy() == AckPolicy.NONE)
+                || (coldHorizonDays > 0 && tieringPeriodSeconds < 1)) throw new IllegalArgumentException();
+        this.coldHorizonDays = coldHorizonDays;
+        this.tieringPeriodSeconds = tieringPeriodSeconds;
+        switch (eventStorage) {
+            case INDEX_ONLY:
+                this.eventStore = new IndexOnlyEventStore(fileSystem, maxCachedEvents);
+                break;
+            case OFF_HEAP:
+                this.eventStore = new OffHeapEventStore();
+                break;
+            default:
+                this.eventStore = new HeapEventStore();
+        }
         this.fileSystem = fileSystem;
+        this.pathToSnapshot = pathToSnapshot == null ? null : Paths.get(pathToSnapshot);
+        this.snapshotPeriodSeconds = snapshotPeriodSeconds;
+        this.warmUp = warmUp;
+        this.warmUpWaitMillis = warmUpWaitMillis;
+        for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
     }
 
+    /**
+     * Loads the snapshot and the files changed after it, or all files without a valid snapshot.
+     * In warm-up mode returns at once and loads in background, events which end today or later first;
+     * queries of a range which is not loaded yet wait at most warmUpWaitMillis. Files are not ordered by date,
+     * so without a snapshot upcoming events are served only after all files are parsed.
+     * Events published meanwhile are not replaced by their older versions, but their duplicates are not detected.
+     */
     public void initDataStoreFromXMLResources() throws IOException, DateTimeFormatException, ExecutionException, InterruptedException {
-        List<Event> eventList = fileSystem.readAllEventsFromXMLResources();
-        for(Event event : eventList) {
-            if (isEventDuplicate(event)) continue;
-            eventStore.put(event.getId(), event);
-            createIndexTitle(event);
-            createIndexDate(event);
-            createIndexAttender(event);
+        if (!warmUp) {
+            load(null);
+            return;
         }
+        if (pathToSnapshot == null) logger.warn("Warm-up without snapshot serves queries only after all files are read");
+        upcomingFrom = LocalDate.now().atStartOfDay();
+        loadedFrom = LocalDateTime.MAX;
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load(Collections.synchronizedList(new ArrayList<Event>()));
+                } catch (Throwable e) {
+                    logger.error("Warm-up of data store failed", e);
+                    synchronized (loadMonitor) {
+                        loadFailure = e;
+                        loadMonitor.notifyAll();
+                    }
+                }
+            }
+        }, "data-store-warm-up");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * @return false while events are loaded in warm-up mode
+     */
+    public boolean isLoaded() {
+        return loadedFrom == LocalDateTime.MIN;
+    }
+
+    /**
+     * Writes all events to the snapshot. Events changed while they are copied are newer than the snapshot,
+     * so they are read from their files on the next start.
+     */
+    public synchronized void writeSnapshot() throws IOException {
+        if (pathToSnapshot == null) throw new IllegalStateException("Snapshot is not configured");
+        if (!isLoaded()) throw new IllegalStateException("Events are not loaded yet");
+        long createdMillis = System.currentTimeMillis();
+        List<Event> events;
+//  no event is moved between the tiers while they are copied
+        tierLock.readLock().lock();
+        try {
+            events = new ArrayList<Event>(eventStore.values());
+            events.addAll(cold.events(this::isColdLive));
+        } finally {
+            tierLock.readLock().unlock();
+        }
+        DataStoreSnapshot.write(pathToSnapshot, createdMillis, events);
+        logger.info("Snapshot of " + events.size() + " events is written to " + pathToSnapshot);
+    }
+
+    /**
+     * Stops periodic snapshots and writes the last one
+     */
+    @Override
+    public void close() {
+        if (snapshotExecutor != null) snapshotExecutor.shutdown();
+        if (tieringExecutor != null) tieringExecutor.shutdown();
+        if (pathToSnapshot != null && isLoaded()) writeSnapshotQuietly();
     }
 
     @Override
     public void publish(Event event) throws IllegalArgumentException, IOException, JAXBException {
         if (event==null) throw new IllegalArgumentException();
-        if (isEventDuplicate(event)) return;
-// add event
-        eventStore.put(event.getId(), event);
-// index by title
-        createIndexTitle(event);
-// index by date
-        createIndexDate(event);
-// index by attender
-        createIndexAttender(event);
-// create xml file with event
-        fileSystem.write(event);
+//  files and off-heap records keep dates to the minute, every tier keeps the same version of the event
+        event = truncatedToMinutes(event);
+        boolean duringWarmUp = !isLoaded();
+        if (duringWarmUp) markPublishedDuringWarmUp(event.getId());
+        unacknowledged.merge(event.getId(), 1, Integer::sum);
+        try {
+            Replaced replaced = addEventIfNotDuplicate(event);
+            if (replaced == null) return;
+// create xml file with event, wait for acknowledgement out of the lock
+            try {
+                await(fileSystem.write(event));
+                eventStore.persisted(event);
+            } catch (IOException | JAXBException | RuntimeException e) {
+//  event which is not stored is not kept in memory and the version it replaced is back, so the publish can be repeated
+                if (removeEventIfSame(event) && replaced.event != null) restoreEvent(replaced.event, replaced.cold);
+                if (duringWarmUp) unmarkPublishedDuringWarmUp(event.getId());
+                throw e;
+            }
+        } finally {
+            unacknowledged.computeIfPresent(event.getId(), (id, count) -> count == 1 ? null : count - 1);
+        }
    }
 
     @Override
    public Event remove(UUID id) throws IllegalArgumentException, JAXBException, IOException {
        if (id==null) throw new IllegalArgumentException();
-// remove event
-       Event event = eventStore.remove(id);
-       if (event!=null) {
-// remove index date
-           removeIndexDate(event);
-// remove index title
-           removeIndexTitle(event);
-// remove index attender
-           removeIndexAttender(event);
-// delete xml file with event
-           fileSystem.delete(event.getId());
+       if (!eventStore.containsKey(id)) awaitLoaded(LocalDateTime.MIN);
+       Event event;
+       boolean fromCold = false;
+       Lock lock = lockFor(id);
+       tierLock.readLock().lock();
+       lock.lock();
+       try {
+           event = eventStore.get(id);
+           if (event!=null) removeEvent(event);
+           else if (isColdLive(id)) {
+               event = cold.get(id);
+               if (event!=null) fromCold = coldRemoved.add(id);
+           }
+       } finally {
+           lock.unlock();
+           tierLock.readLock().unlock();
+       }
+       if (event==null) return null;
+// delete xml file with event, wait for acknowledgement out of the lock
+       try {
+           await(fileSystem.delete(event.getId()));
+       } catch (IOException | JAXBException | RuntimeException e) {
+//  event which is not deleted is kept in memory, so the remove can be repeated
+           restoreEvent(event, fromCold);
+           throw e;
        }
       return event;
    }
@@ -72,66 +279,109 @@ public class DataStoreImpl implements DataStore {
    @Override
    public Event getEventById(UUID id) throws IllegalArgumentException  {
         if (id==null) throw new IllegalArgumentException();
-        return eventStore.get(id);
+        Event event = eventStore.get(id);
+        if (event == null && !isLoaded()) {
+            awaitLoaded(LocalDateTime.MIN);
+            event = eventStore.get(id);
+        }
+//  a miss of the hot tier is seen after the event is moved, so the cold tier already has it
+        if (event == null && isColdLive(id)) event = cold.get(id);
+        return event;
    }
 
    @Override
    public List<Event> getEventByTitle(String title) throws IllegalArgumentException  {
         if (title==null) throw new IllegalArgumentException();
+        awaitLoaded(LocalDateTime.MIN);
 
-        List<UUID> ids = indexTitle.get(title);
         List<Event> events = new ArrayList<Event>();
+        Set<UUID> ids = indexTitle.get(title);
         if (ids!=null) {
             for (UUID id : ids) {
                 Event event = eventStore.get(id);
-                events.add(event);
+                if (event != null && event.getTitle().equals(title)) events.add(event);
             }
         }
+        events.addAll(cold.byTitle(title, this::isColdLive));
         return events;
    }
 
    @Override
    public List<Event> getEventByDay(LocalDate day) throws IllegalArgumentException   {
         if (day==null) throw new IllegalArgumentException();
+        awaitLoaded(day.atStartOfDay());
+
+        return getEventsOverlapping(day.atStartOfDay(), day.atTime(LocalTime.MAX));
+   }
+
+    @Override
+    public List<Event> getEventIntoPeriod(LocalDateTime startDate, LocalDateTime endDate) throws IllegalArgumentException {
+        if (startDate==null || endDate==null || startDate.isAfter(endDate)) throw new IllegalArgumentException();
+        awaitLoaded(startDate);
+
+        return getEventsOverlapping(startDate, endDate);
+    }
+
+    @Override
+    public List<Event> getEventByAttender(Person attender) throws IllegalArgumentException {
+        if (attender==null) throw new IllegalArgumentException();
+        awaitLoaded(LocalDateTime.MIN);
 
-        List<UUID> ids = indexDate.get(day);
         List<Event> events = new ArrayList<Event>();
-        if (ids!=null) {
-            for (UUID id : ids) {
+        IntervalTree timeline = indexAttender.get(attender);
+        if (timeline!=null) {
+            for (UUID id : timeline.all()) {
                 Event event = eventStore.get(id);
-                events.add(event);
+                if (event != null && event.getAttenders().contains(attender)) events.add(event);
             }
         }
-        return events;
-   }
+        return ColdTier.merge(events, cold.byAttender(attender, LocalDateTime.MIN, LocalDateTime.MAX, this::isColdLive),
+                ColdSegment.BY_START, Integer.MAX_VALUE);
+    }
 
     @Override
-    public List<Event> getEventByAttender(Person attender) throws IllegalArgumentException {
-        if (attender==null) throw new IllegalArgumentException();
+    public List<Event> getEventByAttenderIntoPeriod(Person attender, LocalDateTime startDate, LocalDateTime endDate) throws IllegalArgumentException {
+        if (attender==null || startDate==null || endDate==null || startDate.isAfter(endDate)) throw new IllegalArgumentException();
+        awaitLoaded(startDate);
 
-        List<UUID> ids = indexAttender.get(attender);
         List<Event> events = new ArrayList<Event>();
-        if (ids!=null) {
-            for (UUID id : ids) {
+        IntervalTree timeline = indexAttender.get(attender);
+        if (timeline!=null) {
+            for (UUID id : timeline.overlapping(startDate, endDate)) {
                 Event event = eventStore.get(id);
-                events.add(event);
+                if (event != null && event.getAttenders().contains(attender)
+                        && isEventOverlapping(event, startDate, endDate)) events.add(event);
             }
         }
-        return events;
+        return ColdTier.merge(events, cold.byAttender(attender, startDate, endDate, this::isColdLive),
+                ColdSegment.BY_START, Integer.MAX_VALUE);
     }
 
     @Override
     public List<Event> searchEventByTitleStartWith(String prefix) throws IllegalArgumentException{
-        if (prefix == null) throw new IllegalArgumentException();
+        return searchEventByTitleStartWith(prefix, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Event> searchEventByTitleStartWith(String prefix, int limit) throws IllegalArgumentException{
+        if (prefix == null || limit < 1) throw new IllegalArgumentException();
+        awaitLoaded(LocalDateTime.MIN);
         List<Event> presentInEventList = new ArrayList<Event>();
-        for(String title :indexTitle.keySet()){
-            if(title.startsWith(prefix)){
-                for(UUID uuidTitle : indexTitle.get(title)) {
-                    presentInEventList.add(eventStore.get(uuidTitle));
+//  titles with the prefix are a contiguous range of the sorted set starting at the prefix itself
+        for(String title : sortedTitles.tailSet(prefix, true)){
+            if (!title.startsWith(prefix)) break;
+            Set<UUID> ids = indexTitle.get(title);
+            if (ids == null) continue;
+            for(UUID uuidTitle : ids) {
+                Event event = eventStore.get(uuidTitle);
+                if (event != null && event.getTitle().equals(title)) {
+                    presentInEventList.add(event);
+                    if (presentInEventList.size() == limit) break;
                 }
             }
+            if (presentInEventList.size() == limit) break;
         }
-        return presentInEventList;
+        return ColdTier.merge(presentInEventList, cold.byTitlePrefix(prefix, limit, BY_TITLE, this::isColdLive), BY_TITLE, limit);
     }
 
     @Override
@@ -141,90 +391,507 @@ public class DataStoreImpl implements DataStore {
         sb.append(", indexTitle=").append(indexTitle);
         sb.append(", indexDate=").append(indexDate);
         sb.append(", indexAttender=").append(indexAttender);
+        sb.append(", cold=").append(cold);
         sb.append('}');
         return sb.toString();
     }
 
-    private void createIndexTitle(Event event) {
-        List<UUID> idsTitle = indexTitle.get(event.getTitle());
-        if (idsTitle == null) {
-            idsTitle = new ArrayList<UUID>();
-            idsTitle.add(event.getId());
-            indexTitle.put(event.getTitle(), idsTitle);
-        } else {
-            idsTitle.add(event.getId());
+    /**
+     * Checks that every index entry points to a stored event and every stored event is indexed.
+     * Must be called when there are no concurrent writers.
+     */
+    boolean isIndexConsistent() {
+        if (!sortedTitles.equals(indexTitle.keySet())) return false;
+        for (Map.Entry<String, Set<UUID>> entry : indexTitle.entrySet()) {
+            if (entry.getValue().isEmpty()) return false;
+            for (UUID id : entry.getValue()) {
+                Event event = eventStore.get(id);
+                if (event == null || !event.getTitle().equals(entry.getKey())) return false;
+            }
+        }
+        if (indexDate.size() != eventStore.size()) return false;
+        for (UUID id : indexDate.all()) {
+            if (!eventStore.containsKey(id)) return false;
+        }
+        for (Map.Entry<Person, IntervalTree> entry : indexAttender.entrySet()) {
+            if (entry.getValue().isEmpty()) return false;
+            for (UUID id : entry.getValue().all()) {
+                Event event = eventStore.get(id);
+                if (event == null || !event.getAttenders().contains(entry.getKey())) return false;
+            }
         }
+        if (indexContent.size() != eventStore.size()) return false;
+        for (Event event : eventStore.values()) {
+            if (!event.getId().equals(indexContent.get(eventStore.contentKey(event)))) return false;
+            Set<UUID> idsTitle = indexTitle.get(event.getTitle());
+            if (idsTitle == null || !idsTitle.contains(event.getId())) return false;
+            if (!indexDate.overlapping(event.getStartDate(), event.getStartDate()).contains(event.getId())) return false;
+            for (Person attender : event.getAttenders()) {
+                IntervalTree timeline = indexAttender.get(attender);
+                if (timeline == null || !timeline.overlapping(event.getStartDate(), event.getStartDate()).contains(event.getId())) return false;
+            }
+        }
+        return true;
+    }
+
+//  loads all events, if history is given, events which end before upcomingFrom are collected into it
+//  and loaded after the others
+    private void load(List<Event> history) throws IOException, DateTimeFormatException, ExecutionException, InterruptedException {
+        boolean fromSnapshot = pathToSnapshot != null && initDataStoreFromSnapshot(history);
+        if (!fromSnapshot) {
+//  events are indexed concurrently while the rest of files is parsed
+            fileSystem.readAllEvents(new Consumer<Event>() {
+                @Override
+                public void accept(Event event) {
+                    loadEvent(event, history);
+                }
+            });
+            if (history != null) markLoaded(upcomingFrom);
+        }
+        if (history != null) {
+            logger.info("Events from " + upcomingFrom + " are loaded, loading " + history.size() + " events of history");
+            for (Event event : history) loadEvent(event, null);
+        }
+        markLoaded(LocalDateTime.MIN);
+        publishedDuringWarmUp.clear();
+//  the next start doesn't read all files even after a crash
+        if (!fromSnapshot && pathToSnapshot != null) writeSnapshotQuietly();
+        if (pathToSnapshot != null && snapshotPeriodSeconds > 0) scheduleSnapshots();
+        if (coldHorizonDays > 0) scheduleTiering();
+    }
+
+//  events of the snapshot which have not changed since it and events of changed or new files,
+//  returns false if the snapshot is missing or damaged
+    private boolean initDataStoreFromSnapshot(List<Event> history) throws IOException, DateTimeFormatException, ExecutionException, InterruptedException {
+        if (!Files.exists(pathToSnapshot)) return false;
+        DataStoreSnapshot snapshot;
+        try {
+            snapshot = DataStoreSnapshot.read(pathToSnapshot);
+        } catch (IOException e) {
+            logger.warn("Snapshot " + pathToSnapshot + " is not valid, all events are read from files: " + e.getMessage());
+            return false;
+        }
+
+        Map<UUID, Long> versions = fileSystem.readEventVersions();
+        long since = snapshot.getCreatedMillis() - SNAPSHOT_CLOCK_SLACK_MILLIS;
+        Set<UUID> changed = new HashSet<UUID>();
+        for (Map.Entry<UUID, Long> version : versions.entrySet()) {
+            if (version.getValue() >= since) changed.add(version.getKey());
+        }
+        Set<UUID> unchanged = new HashSet<UUID>();
+        for (Event event : snapshot.getEvents()) {
+//  event without file was deleted after the snapshot
+            if (!versions.containsKey(event.getId()) || changed.contains(event.getId())) continue;
+            unchanged.add(event.getId());
+            loadEvent(event, history);
+        }
+//  files of events which are not in the snapshot are read whatever their time is
+        for (UUID id : versions.keySet()) {
+            if (!unchanged.contains(id)) changed.add(id);
+        }
+        List<Event> eventList = fileSystem.readEvents(changed);
+        for (Event event : eventList) {
+            loadEvent(event, history);
+        }
+//  upcoming events are served while the history of the snapshot is indexed
+        if (history != null) markLoaded(upcomingFrom);
+        logger.info("Loaded " + unchanged.size() + " events from snapshot " + pathToSnapshot + " and "
+                + eventList.size() + " changed events from files");
+        return true;
     }
-    private void createIndexDate(Event event) {
-        LocalDate startDay = event.getStartDate().toLocalDate();
-        LocalDate endDay = event.getEndDate().toLocalDate();
 
-        while(startDay.isBefore(endDay) || startDay.equals(endDay)) {
-            List<UUID> idsDate = indexDate.get(startDay);
-            if(idsDate==null) {
-                idsDate = new ArrayList<UUID>();
-                idsDate.add(event.getId());
-                indexDate.put(startDay, idsDate);
-            } else {
-                idsDate.add(event.getId());
+    private void loadEvent(Event event, List<Event> history) {
+        if (history != null && event.getEndDate().isBefore(upcomingFrom)) {
+            history.add(event);
+            return;
+        }
+        Lock lock = lockFor(event.getId());
+        tierLock.readLock().lock();
+        lock.lock();
+        try {
+            if (!publishedDuringWarmUp.contains(event.getId()) && addEventIfNotDuplicate(event) != null) eventStore.persisted(event);
+        } finally {
+            lock.unlock();
+            tierLock.readLock().unlock();
+        }
+    }
+
+//  under the lock of the id, so the loader either adds the older version before the publish or skips it
+    private void markPublishedDuringWarmUp(UUID id) {
+        Lock lock = lockFor(id);
+        lock.lock();
+        try {
+            publishedDuringWarmUp.add(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+//  the version on disk of a publish which failed during warm-up is not skipped any more, it is read at once
+//  in case the loader has already skipped it; the mark stays while another publish of the id waits for the disk
+    private void unmarkPublishedDuringWarmUp(UUID id) {
+        Lock lock = lockFor(id);
+        lock.lock();
+        try {
+            if (unacknowledged.getOrDefault(id, 0) > 1) return;
+            publishedDuringWarmUp.remove(id);
+        } finally {
+            lock.unlock();
+        }
+        Event stored;
+        try {
+            stored = fileSystem.read(id);
+        } catch (Exception e) {
+            logger.error("Can't read event " + id + " after its publish failed", e);
+            return;
+        }
+        if (stored == null) return;
+        tierLock.readLock().lock();
+        lock.lock();
+        try {
+//  a version published or loaded meanwhile is newer
+            if (!publishedDuringWarmUp.contains(id) && !eventStore.containsKey(id) && addEventIfNotDuplicate(stored) != null)
+                eventStore.persisted(stored);
+        } finally {
+            lock.unlock();
+            tierLock.readLock().unlock();
+        }
+    }
+
+    private void markLoaded(LocalDateTime from) {
+        synchronized (loadMonitor) {
+            loadedFrom = from;
+            loadMonitor.notifyAll();
+        }
+    }
+
+//  waits until events which end at or after from are loaded
+    private void awaitLoaded(LocalDateTime from) {
+        if (!loadedFrom.isAfter(from)) return;
+        long deadline = System.currentTimeMillis() + warmUpWaitMillis;
+        synchronized (loadMonitor) {
+            while (loadedFrom.isAfter(from)) {
+                if (loadFailure != null) throw new DataStoreLoadingException("Loading of events failed", loadFailure);
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) throw new DataStoreLoadingException("Events from " + from + " are not loaded yet, "
+                        + (loadedFrom == LocalDateTime.MAX ? "loading has just started" : "loaded from " + loadedFrom));
+                try {
+                    loadMonitor.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DataStoreLoadingException("Interrupted while waiting for events from " + from);
+                }
             }
-            startDay = startDay.plusDays(1);
         }
     }
-    private void createIndexAttender(Event event) {
-        Set<Person> attenders = event.getAttenders();
-        for (Person attender : attenders) {
-            List<UUID> idsAttender = indexAttender.get(attender);
-            if (idsAttender == null) {
-                idsAttender = new ArrayList<UUID>();
-                idsAttender.add(event.getId());
-                indexAttender.put(attender, idsAttender);
-            } else {
-                idsAttender.add(event.getId());
+
+    private void scheduleSnapshots() {
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "data-store-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                writeSnapshotQuietly();
+            }
+        }, snapshotPeriodSeconds, snapshotPeriodSeconds, TimeUnit.SECONDS);
+    }
+
+    private void scheduleTiering() {
+        tieringExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "data-store-tiering");
+                thread.setDaemon(true);
+                return thread;
             }
+        });
+        tieringExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    moveToColdTier();
+                } catch (RuntimeException e) {
+                    logger.error("Moving events to cold tier failed", e);
+                }
+            }
+        }, 0, tieringPeriodSeconds, TimeUnit.SECONDS);
+    }
+
+//  failed snapshot only makes the next start longer
+    private void writeSnapshotQuietly() {
+        try {
+            writeSnapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Can't write snapshot " + pathToSnapshot, e);
         }
     }
 
-    private void removeIndexTitle(Event event) {
-        List<UUID> idsTitle = indexTitle.get(event.getTitle());
-        if (idsTitle.size() <= 1) {
-            indexTitle.remove(event.getTitle());
-        } else {
-            idsTitle.remove(event.getId());
+    private Lock lockFor(UUID id) {
+        return locks[(id.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+//  the same path for bulk load and publish: claims the content of event, so of two equal events published
+//  concurrently under different ids only one is added
+//  returns null if the event is a duplicate
+    private Replaced addEventIfNotDuplicate(Event event) {
+        Lock lock = lockFor(event.getId());
+        tierLock.readLock().lock();
+        lock.lock();
+        try {
+            ContentKey contentKey = eventStore.contentKey(event);
+            if (indexContent.putIfAbsent(contentKey, event.getId()) != null) return null;
+            if (!cold.findContent(event, this::isColdLive).isEmpty()) {
+                indexContent.remove(contentKey, event.getId());
+                return null;
+            }
+//  event with the same id but another content is replaced
+            Event previous = eventStore.get(event.getId());
+            boolean fromCold = false;
+            if (previous != null) removeEvent(previous);
+//  the record of the cold tier is decoded only when it was live, to be put back if the write fails
+            else if (cold.contains(event.getId()) && coldRemoved.add(event.getId())) {
+                previous = cold.get(event.getId());
+                fromCold = true;
+            }
+            addEvent(event, contentKey);
+            return new Replaced(previous, fromCold);
+        } finally {
+            lock.unlock();
+            tierLock.readLock().unlock();
+        }
+    }
+
+//  returns false if the event was changed or removed meanwhile
+    private boolean removeEventIfSame(Event event) {
+        Lock lock = lockFor(event.getId());
+        tierLock.readLock().lock();
+        lock.lock();
+        try {
+            if (!eventStore.isStored(event)) return false;
+            removeEvent(event);
+            return true;
+        } finally {
+            lock.unlock();
+            tierLock.readLock().unlock();
+        }
+    }
+
+//  puts back the version hidden by a failed publish or remove, unless the id or its content was published meanwhile;
+//  a version of the cold tier is revived by undoing its mark while its record is there
+    private void restoreEvent(Event event, boolean fromCold) {
+        Lock lock = lockFor(event.getId());
+        tierLock.readLock().lock();
+        lock.lock();
+        try {
+            if (eventStore.containsKey(event.getId())) return;
+            ContentKey contentKey = eventStore.contentKey(event);
+            if (fromCold && cold.contains(event.getId())) {
+                if (!indexContent.containsKey(contentKey)) coldRemoved.remove(event.getId());
+                return;
+            }
+            if (indexContent.putIfAbsent(contentKey, event.getId()) != null) return;
+            addEvent(event, contentKey);
+            eventStore.persisted(event);
+        } finally {
+            lock.unlock();
+            tierLock.readLock().unlock();
         }
     }
-    private void removeIndexDate(Event event) {
-        LocalDate startDay = event.getStartDate().toLocalDate();
-        LocalDate endDay = event.getEndDate().toLocalDate();
 
-        while(startDay.isBefore(endDay) || startDay.equals(endDay)) {
-            List<UUID> idsDate = indexDate.get(startDay);
+    /**
+     * Moves events which ended more than coldHorizonDays ago to a new cold segment built of the moved events
+     * only; when the tier has more than MAX_COLD_SEGMENTS segments they are compacted into one without the
+     * dead records. Segments are built without locks, writers wait only while the tiers are swapped; an event
+     * changed meanwhile stays in the hot tier and its copy is marked dead, an event whose publish is not
+     * acknowledged yet is not moved.
+     * @return number of moved events
+     */
+    int moveToColdTier() {
+        LocalDateTime horizon = LocalDateTime.now().minusDays(coldHorizonDays);
+        List<Event> moving = new ArrayList<Event>();
+        Set<UUID> movingIds = new HashSet<UUID>();
+        for (UUID id : indexDate.overlapping(LocalDateTime.MIN, horizon)) {
+            Event event = eventStore.get(id);
+            if (event != null && event.getEndDate().isBefore(horizon) && !unacknowledged.containsKey(id)) {
+                moving.add(event);
+                movingIds.add(id);
+            }
+        }
+        if (moving.isEmpty()) return 0;
+        ColdTier next = cold.with(ColdSegment.build(moving));
+//  ids dead when compaction starts lose their records, the moved ones get a new record
+        Set<UUID> dropped = Collections.emptySet();
+        if (next.getSegments() > MAX_COLD_SEGMENTS) {
+            final Set<UUID> dead = new HashSet<UUID>(coldRemoved);
+            dead.removeAll(movingIds);
+            next = next.compact(id -> !dead.contains(id));
+            dropped = dead;
+        }
 
-            if (idsDate.size() <= 1) {
-                indexDate.remove(startDay);
-            } else {
-                idsDate.remove(event.getId());
+        int moved = 0;
+        tierLock.writeLock().lock();
+        try {
+//  readers see an event in both tiers until it is removed from the hot one, the hot copy wins
+            for (Event event : moving) {
+                if (eventStore.isStored(event) && !unacknowledged.containsKey(event.getId())) {
+                    coldRemoved.remove(event.getId());
+                    moved++;
+                } else {
+                    coldRemoved.add(event.getId());
+                }
             }
-            startDay = startDay.plusDays(1);
+            for (UUID id : dropped) {
+                if (coldRemoved.remove(id) || eventStore.containsKey(id)) continue;
+//  the mark was undone by a failed write meanwhile, the dropped record is put back to the hot tier
+                Event event = cold.get(id);
+                if (event != null && indexContent.putIfAbsent(eventStore.contentKey(event), id) == null) {
+                    addEvent(event, eventStore.contentKey(event));
+                    eventStore.persisted(event);
+                }
+            }
+            cold = next;
+            for (Event event : moving) {
+                if (!coldRemoved.contains(event.getId())) removeEvent(event);
+            }
+        } finally {
+            tierLock.writeLock().unlock();
+        }
+        logger.info("Moved " + moved + " events ended before " + horizon + " to " + next);
+        return moved;
+    }
+
+//  waits for file system, failure of the future is thrown as it is
+    private static <T> T await(Future<T> future) throws IOException, JAXBException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for file system");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof JAXBException) throw (JAXBException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
         }
     }
 
-    private void removeIndexAttender(Event event) {
+//  indexes are filled before the event becomes visible in eventStore, so readers never see a half-published event
+    private void addEvent(Event event, ContentKey contentKey) {
+// index by title
+        createIndexTitle(event);
+// index by date
+        createIndexDate(event);
+// index by attender
+        createIndexAttender(event);
+// add event
+        eventStore.put(event, contentKey);
+    }
+
+//  event disappears from eventStore first, so readers never see a half-removed event
+    private void removeEvent(Event event) {
+// remove event
+        eventStore.remove(event.getId());
+// remove index date
+        removeIndexDate(event);
+// remove index title
+        removeIndexTitle(event);
+// remove index attender
+        removeIndexAttender(event);
+// remove index content
+        indexContent.remove(eventStore.contentKey(event), event.getId());
+    }
+
+    private void createIndexTitle(Event event) {
+        final UUID id = event.getId();
+        indexTitle.compute(event.getTitle(), (title, ids) -> {
+            if (ids == null) {
+                ids = ConcurrentHashMap.newKeySet();
+                sortedTitles.add(title);
+            }
+            ids.add(id);
+            return ids;
+        });
+    }
+    private void createIndexDate(Event event) {
+        indexDate.add(event.getId(), event.getStartDate(), event.getEndDate());
+    }
+    private void createIndexAttender(final Event event) {
         Set<Person> attenders = event.getAttenders();
         for (Person attender : attenders) {
-            List<UUID> idsAttender = indexAttender.get(attender);
-            if (idsAttender.size() <= 1) {
-                indexTitle.remove(event.getTitle());
-            } else {
-                idsAttender.remove(event.getId());
-            }
+            indexAttender.compute(attender, (person, timeline) -> {
+                if (timeline == null) timeline = new IntervalTree();
+                timeline.add(event.getId(), event.getStartDate(), event.getEndDate());
+                return timeline;
+            });
         }
     }
 
-    private boolean isEventDuplicate(Event event) {
-        for(Event e : searchEventByTitleStartWith(event.getTitle()))
-            if (e.equals(event))
-                return true;
-        return false;
+    private void removeIndexTitle(Event event) {
+        final UUID id = event.getId();
+        indexTitle.computeIfPresent(event.getTitle(), (title, ids) -> {
+            ids.remove(id);
+            if (!ids.isEmpty()) return ids;
+            sortedTitles.remove(title);
+            return null;
+        });
+    }
+    private void removeIndexDate(Event event) {
+        indexDate.remove(event.getId(), event.getStartDate(), event.getEndDate());
+    }
+
+    private void removeIndexAttender(final Event event) {
+        Set<Person> attenders = event.getAttenders();
+        for (Person attender : attenders) {
+            indexAttender.computeIfPresent(attender, (person, timeline) -> {
+                timeline.remove(event.getId(), event.getStartDate(), event.getEndDate());
+                return timeline.isEmpty() ? null : timeline;
+            });
+        }
+    }
+
+//  events which have common points with the period [from, to], ordered by start date
+    private List<Event> getEventsOverlapping(LocalDateTime from, LocalDateTime to) {
+        List<Event> events = new ArrayList<Event>();
+        for (UUID id : indexDate.overlapping(from, to)) {
+            Event event = eventStore.get(id);
+            if (event != null && isEventOverlapping(event, from, to)) events.add(event);
+        }
+        return ColdTier.merge(events, cold.overlapping(from, to, this::isColdLive), ColdSegment.BY_START, Integer.MAX_VALUE);
+    }
+
+//  record of the cold tier which is neither dead nor shadowed by the hot tier
+    private boolean isColdLive(UUID id) {
+        return !coldRemoved.contains(id) && !eventStore.containsKey(id);
+    }
+
+    private static Event truncatedToMinutes(Event event) {
+        if (EventRecords.isWholeMinute(event.getStartDate()) && EventRecords.isWholeMinute(event.getEndDate())) return event;
+        Event.EventBuilder builder = new Event.EventBuilder(event);
+        if (event.getStartDate() != null) builder.startDate(event.getStartDate().truncatedTo(ChronoUnit.MINUTES));
+        if (event.getEndDate() != null) builder.endDate(event.getEndDate().truncatedTo(ChronoUnit.MINUTES));
+        return builder.build();
+    }
+
+    private static boolean isEventOverlapping(Event event, LocalDateTime from, LocalDateTime to) {
+        return !event.getStartDate().isAfter(to) && !event.getEndDate().isBefore(from);
+    }
+
+//  version of the id which a published event has replaced in memory, put back if the write fails
+    private static final class Replaced {
+        final Event event;
+//  the version is a record of the cold tier which was marked dead by the publish
+        final boolean cold;
+
+        Replaced(Event event, boolean cold) {
+            this.event = event;
+            this.cold = cold;
+        }
     }
 }
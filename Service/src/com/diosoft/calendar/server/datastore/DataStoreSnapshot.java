@@ -0,0 +1,104 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.filesystem.BinaryEventCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Checkpoint of all events of the data store in one file:
+ * [int magic "CSNP"][byte version][long time of creation in milliseconds]
+ * [events as one block of BinaryEventCodec][int length of events][int crc32 of everything before].
+ * The length follows the events, so they are streamed into the file and back without a copy of the file in memory.
+ * The file is written to a temporary file and moved over the previous snapshot, so a crash leaves the old one.
+ */
+final class DataStoreSnapshot {
+
+    static final int MAGIC = 0x43534E50;
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+    private static final int LENGTH_SIZE = 4;
+    private static final int CRC_SIZE = 4;
+
+    private final long createdMillis;
+    private final List<Event> events;
+
+    private DataStoreSnapshot(long createdMillis, List<Event> events) {
+        this.createdMillis = createdMillis;
+        this.events = events;
+    }
+
+    long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    List<Event> getEvents() {
+        return events;
+    }
+
+    static void write(Path file, long createdMillis, Collection<Event> events) throws IOException {
+        if (file.toAbsolutePath().getParent() != null) Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+//  events are encoded straight into the file, the checksum is computed on the way
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+            DataOutputStream data = new DataOutputStream(checked);
+            data.writeInt(MAGIC);
+            data.writeByte(VERSION);
+            data.writeLong(createdMillis);
+            new BinaryEventCodec().encodeAll(events, data);
+            data.writeInt(data.size() - HEADER_SIZE);
+            data.writeInt((int) checked.getChecksum().getValue());
+            data.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Events are decoded while the checksum is computed, they are returned only if it matches
+     * @throws IOException if the file can't be read or is not a valid snapshot
+     */
+    static DataStoreSnapshot read(Path file) throws IOException {
+        long size = Files.size(file);
+        if (size < HEADER_SIZE + LENGTH_SIZE + CRC_SIZE) throw new IOException("Snapshot is too short: " + size);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+            DataInputStream data = new DataInputStream(checked);
+            if (data.readInt() != MAGIC) throw new IOException("Not a snapshot of events");
+            int version = data.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported version of snapshot: " + version);
+            long createdMillis = data.readLong();
+            List<Event> events = new BinaryEventCodec().decodeAll(data);
+            int length = data.readInt();
+            int crc = (int) checked.getChecksum().getValue();
+            if (new DataInputStream(in).readInt() != crc) throw new IOException("Wrong checksum of snapshot");
+//  the events ended where the length says, nothing follows the checksum
+            if (length != size - HEADER_SIZE - LENGTH_SIZE - CRC_SIZE || in.read() != -1)
+                throw new IOException("Wrong length of snapshot: " + length);
+            return new DataStoreSnapshot(createdMillis, events);
+        } catch (EOFException e) {
+            throw new IOException("Snapshot is truncated", e);
+        }
+    }
+}
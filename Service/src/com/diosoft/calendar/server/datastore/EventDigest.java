@@ -0,0 +1,90 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 128-bit MD5 digest of the content of event without id, key of the content index for events
+ * which are not kept on heap. Attenders are digested in sorted order, so the order of the set
+ * doesn't matter. Dates are digested to the minute, as event files keep them, so the digest of an event
+ * read back from its file is equal to the digest of the published one.
+ * Equal content gives equal digests, a collision of different content is not expected.
+ */
+final class EventDigest extends ContentKey {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long high;
+    private final long low;
+
+    private EventDigest(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    static EventDigest of(Event event) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(md5, event.getTitle());
+        update(md5, event.getDescription());
+        update(md5, event.getStartDate() == null ? null : event.getStartDate().truncatedTo(ChronoUnit.MINUTES).toString());
+        update(md5, event.getEndDate() == null ? null : event.getEndDate().truncatedTo(ChronoUnit.MINUTES).toString());
+        if (event.getAttenders() != null) {
+            List<String> attenders = new ArrayList<String>(event.getAttenders().size());
+            for (Person attender : event.getAttenders()) {
+                attenders.add(attender.getName() + '\u0000' + attender.getLastName() + '\u0000' + attender.getEmail());
+            }
+            Collections.sort(attenders);
+            for (String attender : attenders) update(md5, attender);
+        }
+        ByteBuffer digest = ByteBuffer.wrap(md5.digest());
+        return new EventDigest(digest.getLong(), digest.getLong());
+    }
+
+    long high() {
+        return high;
+    }
+
+    long low() {
+        return low;
+    }
+
+//  every value is prefixed by its length, -1 for null, so values can't run into each other
+    private static void update(MessageDigest md5, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF_8);
+        md5.update(ByteBuffer.allocate(4).putInt(value == null ? -1 : bytes.length).array());
+        md5.update(bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof EventDigest)) return false;
+
+        EventDigest digest = (EventDigest) obj;
+        return high == digest.high && low == digest.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (high ^ (high >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
@@ -0,0 +1,53 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.filesystem.BinaryEventCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+
+/**
+ * BinaryEventCodec records of events kept in buffers out of the heap by OffHeapEventStore and ColdSegment.
+ * Records are decoded in place, without copying them to the heap first.
+ */
+final class EventRecords {
+
+    private static final BinaryEventCodec CODEC = new BinaryEventCodec();
+
+    private EventRecords() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if a date of the event is not a whole minute, the record would change it
+     */
+    static byte[] encode(Event event) {
+        if (!isWholeMinute(event.getStartDate()) || !isWholeMinute(event.getEndDate())) throw new IllegalArgumentException();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            CODEC.encode(event, out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't encode event " + event.getId(), e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param source buffer of the record, named in the error of a damaged record
+     */
+    static Event decode(ByteBuffer buffer, int offset, int length, Object source) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(offset + length);
+        record.position(offset);
+        try {
+            return CODEC.decode(record);
+        } catch (IOException e) {
+            throw new IllegalStateException("Damaged record at " + offset + " of " + source, e);
+        }
+    }
+
+    static boolean isWholeMinute(LocalDateTime date) {
+        return date == null || (date.getSecond() == 0 && date.getNano() == 0);
+    }
+}
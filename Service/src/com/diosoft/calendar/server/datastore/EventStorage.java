@@ -0,0 +1,13 @@
+package com.diosoft.calendar.server.datastore;
+
+/**
+ * Where DataStoreImpl keeps bodies of events, indexes are always on heap
+ */
+public enum EventStorage {
+    /** every event is an object on heap */
+    HEAP,
+    /** only a digest of every event is on heap, bodies are read from the file system through a cache */
+    INDEX_ONLY,
+    /** events are encoded into direct buffers out of the heap and decoded when they are returned */
+    OFF_HEAP
+}
@@ -0,0 +1,45 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Events of DataStoreImpl by id. Writes of one id are serialized by the caller, reads may be concurrent.
+ */
+interface EventStore {
+
+    /**
+     * @return stored version of the event or null if there is no event with the id
+     */
+    Event get(UUID id);
+
+    boolean containsKey(UUID id);
+
+    /**
+     * @return true if the event is the stored version of its id
+     */
+    boolean isStored(Event event);
+
+    /**
+     * @param contentKey key of the event in the content index, made by contentKey
+     */
+    void put(Event event, ContentKey contentKey);
+
+    void remove(UUID id);
+
+    /**
+     * Called when the file system has acknowledged the event, so it can be read back from there
+     */
+    void persisted(Event event);
+
+    int size();
+
+    Collection<Event> values();
+
+    /**
+     * @return key which is equal for events with the same content, whatever their ids are
+     */
+    ContentKey contentKey(Event event);
+}
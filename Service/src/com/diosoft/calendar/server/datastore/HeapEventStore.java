@@ -0,0 +1,65 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Every event is kept on heap, content index holds keys of the events themselves
+ */
+class HeapEventStore implements EventStore {
+
+    private final ConcurrentMap<UUID, Event> events = new ConcurrentHashMap<UUID, Event>();
+
+    @Override
+    public Event get(UUID id) {
+        return events.get(id);
+    }
+
+    @Override
+    public boolean containsKey(UUID id) {
+        return events.containsKey(id);
+    }
+
+    @Override
+    public boolean isStored(Event event) {
+        return events.get(event.getId()) == event;
+    }
+
+    @Override
+    public void put(Event event, ContentKey contentKey) {
+        events.put(event.getId(), event);
+    }
+
+    @Override
+    public void remove(UUID id) {
+        events.remove(id);
+    }
+
+    @Override
+    public void persisted(Event event) {
+    }
+
+    @Override
+    public int size() {
+        return events.size();
+    }
+
+    @Override
+    public Collection<Event> values() {
+        return events.values();
+    }
+
+    @Override
+    public ContentKey contentKey(Event event) {
+        return ContentKey.of(event);
+    }
+
+    @Override
+    public String toString() {
+        return events.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.exception.DataStoreLoadingException;
+import com.diosoft.calendar.server.filesystem.FileSystem;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps only a digest of every event on heap, bodies are read from the file system on demand
+ * and kept in an LRU cache of at most maxCachedEvents events. Title, dates and attenders of events
+ * are already in the indexes of the data store, so nothing else is needed to answer which events match a query.
+ * An event which is not acknowledged by the file system yet is pinned on heap, a body read from a file
+ * is used only if its digest is the digest of the stored version.
+ * The file system must keep the acknowledged version readable, so DataStoreImpl refuses AckPolicy NONE.
+ */
+class IndexOnlyEventStore implements EventStore {
+    private static final Logger logger = Logger.getLogger(IndexOnlyEventStore.class);
+
+    private final FileSystem fileSystem;
+    private final int maxCachedEvents;
+    private final ConcurrentMap<UUID, EventDigest> digests = new ConcurrentHashMap<UUID, EventDigest>();
+//  published events which may be not written yet
+    private final ConcurrentMap<UUID, Event> unpersisted = new ConcurrentHashMap<UUID, Event>();
+//  guarded by itself, access order
+    private final LinkedHashMap<UUID, CachedEvent> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    IndexOnlyEventStore(FileSystem fileSystem, final int maxCachedEvents) {
+        if (fileSystem == null || maxCachedEvents < 0) throw new IllegalArgumentException();
+        this.fileSystem = fileSystem;
+        this.maxCachedEvents = maxCachedEvents;
+        this.cache = new LinkedHashMap<UUID, CachedEvent>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, CachedEvent> eldest) {
+                return size() > maxCachedEvents;
+            }
+        };
+    }
+
+    /**
+     * @throws DataStoreLoadingException if the file system fails to read the event
+     */
+    @Override
+    public Event get(UUID id) {
+        EventDigest digest = digests.get(id);
+        if (digest == null) return null;
+        Event event = unpersisted.get(id);
+        if (event != null) return event;
+        synchronized (cache) {
+            CachedEvent cached = cache.get(id);
+            if (cached != null && cached.digest == digest) {
+                hits.incrementAndGet();
+                return cached.event;
+            }
+        }
+
+        loads.incrementAndGet();
+        try {
+            event = fileSystem.read(id);
+        } catch (Exception e) {
+            throw new DataStoreLoadingException("Can't read event " + id, e);
+        }
+        if (event == null || !digest.equals(EventDigest.of(event))) {
+//  the event was changed or removed meanwhile, or the file is behind the stored version
+            if (digests.get(id) == digest) logger.warn("File of event " + id + " doesn't match the stored version");
+            return null;
+        }
+        cache(id, new CachedEvent(digest, event));
+        return event;
+    }
+
+    @Override
+    public boolean containsKey(UUID id) {
+        return digests.containsKey(id);
+    }
+
+    @Override
+    public boolean isStored(Event event) {
+        EventDigest digest = digests.get(event.getId());
+        return digest != null && digest.equals(EventDigest.of(event));
+    }
+
+    @Override
+    public void put(Event event, ContentKey contentKey) {
+        EventDigest digest = (EventDigest) contentKey;
+        unpersisted.put(event.getId(), event);
+        digests.put(event.getId(), digest);
+        cache(event.getId(), new CachedEvent(digest, event));
+    }
+
+    @Override
+    public void remove(UUID id) {
+        digests.remove(id);
+        unpersisted.remove(id);
+        synchronized (cache) {
+            cache.remove(id);
+        }
+    }
+
+    @Override
+    public void persisted(Event event) {
+        unpersisted.remove(event.getId(), event);
+    }
+
+    @Override
+    public int size() {
+        return digests.size();
+    }
+
+    /**
+     * Reads every event which is not cached
+     */
+    @Override
+    public Collection<Event> values() {
+        List<Event> events = new ArrayList<Event>(digests.size());
+        for (UUID id : digests.keySet()) {
+            Event event = get(id);
+            if (event != null) events.add(event);
+        }
+        return events;
+    }
+
+    @Override
+    public ContentKey contentKey(Event event) {
+        return EventDigest.of(event);
+    }
+
+    long getCacheHits() {
+        return hits.get();
+    }
+
+    long getLoads() {
+        return loads.get();
+    }
+
+    @Override
+    public String toString() {
+        return "IndexOnlyEventStore{events=" + digests.size() + ", unpersisted=" + unpersisted.size()
+                + ", cached=" + cachedEvents() + "/" + maxCachedEvents + ", hits=" + hits.get() + ", loads=" + loads.get() + '}';
+    }
+
+    private int cachedEvents() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private void cache(UUID id, CachedEvent cached) {
+        if (maxCachedEvents == 0) return;
+        synchronized (cache) {
+            cache.put(id, cached);
+        }
+    }
+
+    private static final class CachedEvent {
+        final EventDigest digest;
+        final Event event;
+
+        CachedEvent(EventDigest digest, Event event) {
+            this.digest = digest;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.diosoft.calendar.server.datastore;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Index of event ids by [startDate, endDate] interval.
+ * Treap ordered by (start, end, id) where every node keeps the maximum end of its subtree.
+ * Nodes are immutable: writers copy the path they change and publish a new root,
+ * so readers walk a consistent snapshot without locking.
+ * Memory is one node per event whatever the duration of the event.
+ */
+class IntervalTree {
+
+    private volatile Node root;
+    private volatile int size;
+
+    /**
+     * Adds interval of the event to the index
+     */
+    synchronized void add(UUID id, LocalDateTime startDate, LocalDateTime endDate) {
+        Node node = new Node(toSeconds(startDate), toSeconds(endDate), id);
+        Node[] parts = split(root, node.start, node.end, id);
+        root = merge(merge(parts[0], node), parts[1]);
+        size++;
+    }
+
+    /**
+     * Removes interval of the event from the index
+     * @return true if the interval was in the index
+     */
+    synchronized boolean remove(UUID id, LocalDateTime startDate, LocalDateTime endDate) {
+        Node[] removed = new Node[1];
+        root = remove(root, toSeconds(startDate), toSeconds(endDate), id, removed);
+        if (removed[0] == null) return false;
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns ids of events which have common points with the period [from, to], ordered by start date.
+     * Subtrees whose maximum end is before from are skipped, so it works in O(min(n, k log n)) for k found ids.
+     */
+    List<UUID> overlapping(LocalDateTime from, LocalDateTime to) {
+        List<UUID> ids = new ArrayList<UUID>();
+        collect(root, toSeconds(from), toSeconds(to), ids);
+        return ids;
+    }
+
+    /**
+     * Returns all ids ordered by start date
+     */
+    List<UUID> all() {
+        List<UUID> ids = new ArrayList<UUID>(size);
+        collectAll(root, ids);
+        return ids;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    @Override
+    public String toString() {
+        return "IntervalTree{size=" + size + '}';
+    }
+
+    static long toSeconds(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static void collect(Node node, long from, long to, List<UUID> ids) {
+        if (node == null || node.maxEnd < from) return;
+        collect(node.left, from, to, ids);
+//  this node and the whole right subtree start after the period
+        if (node.start > to) return;
+        if (node.end >= from) ids.add(node.id);
+        collect(node.right, from, to, ids);
+    }
+
+    private static void collectAll(Node node, List<UUID> ids) {
+        if (node == null) return;
+        collectAll(node.left, ids);
+        ids.add(node.id);
+        collectAll(node.right, ids);
+    }
+
+//  splits the tree into nodes less than the key and nodes greater or equal to the key
+    private static Node[] split(Node node, long start, long end, UUID id) {
+        if (node == null) return new Node[2];
+        if (node.compareTo(start, end, id) < 0) {
+            Node[] parts = split(node.right, start, end, id);
+            parts[0] = node.copy(node.left, parts[0]);
+            return parts;
+        } else {
+            Node[] parts = split(node.left, start, end, id);
+            parts[1] = node.copy(parts[1], node.right);
+            return parts;
+        }
+    }
+
+//  every key of the left tree is less than every key of the right tree
+    private static Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            return left.copy(left.left, merge(left.right, right));
+        } else {
+            return right.copy(merge(left, right.left), right.right);
+        }
+    }
+
+    private static Node remove(Node node, long start, long end, UUID id, Node[] removed) {
+        if (node == null) return null;
+        int result = node.compareTo(start, end, id);
+        if (result == 0) {
+            removed[0] = node;
+            return merge(node.left, node.right);
+        }
+        if (result > 0) {
+            Node left = remove(node.left, start, end, id, removed);
+            return removed[0] == null ? node : node.copy(left, node.right);
+        } else {
+            Node right = remove(node.right, start, end, id, removed);
+            return removed[0] == null ? node : node.copy(node.left, right);
+        }
+    }
+
+    private static final class Node {
+        final long start;
+        final long end;
+        final UUID id;
+        final int priority;
+        final Node left;
+        final Node right;
+        final long maxEnd;
+
+        Node(long start, long end, UUID id) {
+            this(start, end, id, mix(id), null, null);
+        }
+
+        private Node(long start, long end, UUID id, int priority, Node left, Node right) {
+            this.start = start;
+            this.end = end;
+            this.id = id;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            long max = end;
+            if (left != null && left.maxEnd > max) max = left.maxEnd;
+            if (right != null && right.maxEnd > max) max = right.maxEnd;
+            this.maxEnd = max;
+        }
+
+        Node copy(Node left, Node right) {
+            return new Node(start, end, id, priority, left, right);
+        }
+
+        int compareTo(long start, long end, UUID id) {
+            if (this.start != start) return this.start < start ? -1 : 1;
+            if (this.end != end) return this.end < end ? -1 : 1;
+            return this.id.compareTo(id);
+        }
+
+        private static int mix(UUID id) {
+            long bits = id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+            bits *= 0x9E3779B97F4A7C15L;
+            return (int) (bits ^ (bits >>> 32));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps events as BinaryEventCodec records in direct buffers, so the garbage collector sees one buffer per chunk
+ * instead of the object graph of every event. Records are appended to the current chunk:
+ * [int length of payload][long most bits of id][long least bits of id][payload].
+ * A record is never changed, a new version of the event is appended and the old record becomes dead.
+ * When live records take less than a quarter of a full chunk they are appended again and the chunk is dropped,
+ * its memory is freed with the buffer. A reader which has found the chunk of a record reads it even if
+ * the chunk is dropped meanwhile. Events are decoded on every get, content index holds digests.
+ */
+class OffHeapEventStore implements EventStore {
+
+    static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int HEADER_SIZE = 4 + 16;
+    private static final int COMPACTION_RATIO = 4;
+
+    private final int chunkSize;
+//  location of record: number of chunk in high 32 bits, offset in low 32 bits
+    private final ConcurrentMap<UUID, Long> locations = new ConcurrentHashMap<UUID, Long>();
+    private final ConcurrentMap<Integer, Chunk> chunks = new ConcurrentHashMap<Integer, Chunk>();
+    private final AtomicLong compactedChunks = new AtomicLong();
+//  guarded by this
+    private Chunk current;
+
+    OffHeapEventStore() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    OffHeapEventStore(int chunkSize) {
+        if (chunkSize < HEADER_SIZE) throw new IllegalArgumentException();
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public Event get(UUID id) {
+        while (true) {
+            Long location = locations.get(id);
+            if (location == null) return null;
+            Chunk chunk = chunks.get(chunkOf(location));
+            if (chunk != null) return decode(chunk, offsetOf(location));
+//  chunk was compacted while reading, the record has a new location
+            if (location.equals(locations.get(id))) throw new IllegalStateException("Record of event " + id + " is lost");
+        }
+    }
+
+    @Override
+    public boolean containsKey(UUID id) {
+        return locations.containsKey(id);
+    }
+
+    @Override
+    public boolean isStored(Event event) {
+        return event.equals(get(event.getId()));
+    }
+
+    @Override
+    public void put(Event event, ContentKey contentKey) {
+        byte[] payload = EventRecords.encode(event);
+        long location = append(event.getId(), payload);
+        Long previous = locations.put(event.getId(), location);
+        if (previous != null) free(previous);
+    }
+
+    @Override
+    public void remove(UUID id) {
+        Long location = locations.remove(id);
+        if (location != null) free(location);
+    }
+
+    @Override
+    public void persisted(Event event) {
+    }
+
+    @Override
+    public int size() {
+        return locations.size();
+    }
+
+    @Override
+    public Collection<Event> values() {
+        List<Event> events = new ArrayList<Event>(locations.size());
+        for (UUID id : locations.keySet()) {
+            Event event = get(id);
+            if (event != null) events.add(event);
+        }
+        return events;
+    }
+
+    @Override
+    public ContentKey contentKey(Event event) {
+        return EventDigest.of(event);
+    }
+
+    /**
+     * @return memory of all chunks
+     */
+    long getOffHeapBytes() {
+        long bytes = 0;
+        for (Chunk chunk : chunks.values()) bytes += chunk.buffer.capacity();
+        return bytes;
+    }
+
+    long getLiveBytes() {
+        long bytes = 0;
+        for (Chunk chunk : chunks.values()) bytes += chunk.liveBytes.get();
+        return bytes;
+    }
+
+    long getCompactedChunks() {
+        return compactedChunks.get();
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapEventStore{events=" + locations.size() + ", chunks=" + chunks.size()
+                + ", offHeapBytes=" + getOffHeapBytes() + ", liveBytes=" + getLiveBytes() + '}';
+    }
+
+    private long append(UUID id, byte[] payload) {
+        int size = HEADER_SIZE + payload.length;
+        Chunk full = null;
+        long location;
+        synchronized (this) {
+            if (current == null || current.buffer.capacity() - current.position < size) {
+                full = current;
+                current = new Chunk(current == null ? 0 : current.number + 1, Math.max(chunkSize, size));
+                chunks.put(current.number, current);
+            }
+            int offset = current.position;
+            ByteBuffer view = current.buffer.duplicate();
+            view.position(offset);
+            view.putInt(payload.length).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).put(payload);
+            current.position += size;
+            current.liveBytes.addAndGet(size);
+            location = ((long) current.number << 32) | offset;
+        }
+//  out of the lock, compaction appends again
+        if (full != null) seal(full);
+        return location;
+    }
+
+    private void free(long location) {
+        Chunk chunk = chunks.get(chunkOf(location));
+        if (chunk == null) return;
+        int size = HEADER_SIZE + chunk.buffer.getInt(offsetOf(location));
+        chunk.liveBytes.addAndGet(-size);
+        if (chunk.sealed) collect(chunk);
+    }
+
+    private void seal(Chunk chunk) {
+        chunk.sealed = true;
+        collect(chunk);
+    }
+
+//  drops a chunk without live records, moves live records out of a chunk which is mostly dead
+    private void collect(Chunk chunk) {
+        if (chunk.liveBytes.get() == 0) {
+            drop(chunk);
+            return;
+        }
+        if (chunk.liveBytes.get() * COMPACTION_RATIO > chunk.buffer.capacity()) return;
+        if (!chunk.compacting.compareAndSet(false, true)) return;
+        int offset = 0;
+        while (offset < chunk.position) {
+            int payloadSize = chunk.buffer.getInt(offset);
+            UUID id = new UUID(chunk.buffer.getLong(offset + 4), chunk.buffer.getLong(offset + 12));
+            long location = ((long) chunk.number << 32) | offset;
+            if (Long.valueOf(location).equals(locations.get(id))) {
+                byte[] payload = new byte[payloadSize];
+                read(chunk.buffer, offset + HEADER_SIZE, payload);
+                long copy = append(id, payload);
+//  the event was changed or removed meanwhile
+                if (locations.replace(id, location, copy)) free(location);
+                else free(copy);
+            }
+            offset += HEADER_SIZE + payloadSize;
+        }
+//  a record appended before the chunk was sealed may be registered only now, it is moved by the next collect
+        if (chunk.liveBytes.get() != 0) chunk.compacting.set(false);
+        if (chunk.liveBytes.get() == 0) drop(chunk);
+    }
+
+    private void drop(Chunk chunk) {
+        if (chunks.remove(chunk.number, chunk) && chunk.compacting.get()) compactedChunks.incrementAndGet();
+    }
+
+    private static Event decode(Chunk chunk, int offset) {
+        return EventRecords.decode(chunk.buffer, offset + HEADER_SIZE, chunk.buffer.getInt(offset), "chunk " + chunk.number);
+    }
+
+    private static void read(ByteBuffer buffer, int offset, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+    }
+
+    private static int chunkOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private static final class Chunk {
+        final int number;
+        final ByteBuffer buffer;
+        final AtomicInteger liveBytes = new AtomicInteger();
+        final AtomicBoolean compacting = new AtomicBoolean();
+//  changed under the lock of the store
+        int position;
+        volatile boolean sealed;
+
+        Chunk(int number, int capacity) {
+            this.number = number;
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.diosoft.calendar.server.exception;
+
+/**
+ * Query touches events which are not loaded yet during warm-up of the data store,
+ * or an event can't be read from the file system in index-only mode
+ */
+public class DataStoreLoadingException extends RuntimeException {
+
+    public DataStoreLoadingException(String msg) {
+        super(msg);
+    }
+    public DataStoreLoadingException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
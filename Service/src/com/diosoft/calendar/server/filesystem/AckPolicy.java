@@ -0,0 +1,13 @@
+package com.diosoft.calendar.server.filesystem;
+
+/**
+ * When the future returned by FileSystem.write and FileSystem.delete is completed
+ */
+public enum AckPolicy {
+    /** at once, failures are only logged */
+    NONE,
+    /** when data is handed to the operating system */
+    WRITE,
+    /** when data is forced to the storage device */
+    FSYNC
+}
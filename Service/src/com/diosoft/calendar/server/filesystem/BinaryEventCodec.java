@@ -0,0 +1,224 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Versioned binary format of a block of events:
+ * magic "CEVT" and version byte,
+ * string table: varint count, every string as varint length and UTF-8 bytes,
+ * attender dictionary: varint count, every attender as references to name, last name and email,
+ * events: varint count, every event as flags byte, id as two longs, references to title and description,
+ * start as zigzag varint of epoch minutes, end as zigzag varint of minutes after start,
+ * varint count of attenders and their numbers in the dictionary.
+ * String reference 0 is null, n is the string n - 1 of the table. Dates are kept to the minute as in xml files.
+ * A file holds a block of one event, a snapshot may hold all events, so every string and attender
+ * is stored once per block.
+ */
+public class BinaryEventCodec implements EventCodec {
+
+    static final int MAGIC = 0x43455654;
+    static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int FLAG_ID = 1;
+    private static final int FLAG_START = 2;
+    private static final int FLAG_END = 4;
+    private static final int MAX_COUNT = 1 << 28;
+    private static final int MAX_STRING_SIZE = 16 * 1024 * 1024;
+
+    @Override
+    public String getFileExtension() {
+        return ".bin";
+    }
+
+    @Override
+    public void encode(Event event, OutputStream out) throws IOException {
+        encodeAll(Collections.singletonList(event), out);
+    }
+
+    @Override
+    public Event decode(InputStream in) throws IOException {
+        List<Event> events = decodeAll(in);
+        if (events.size() != 1) throw new IOException("One event expected but found " + events.size());
+        return events.get(0);
+    }
+
+    /**
+     * Decodes the event of the remaining bytes of the buffer in place, the buffer is not changed
+     */
+    public Event decode(ByteBuffer buffer) throws IOException {
+        return decode(new ByteBufferInputStream(buffer));
+    }
+
+    /**
+     * Writes events as one block, the stream is not closed
+     */
+    public void encodeAll(Collection<Event> events, OutputStream out) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        Map<Person, Integer> persons = new LinkedHashMap<Person, Integer>();
+        for (Event event : events) {
+            addString(strings, event.getTitle());
+            addString(strings, event.getDescription());
+            for (Person attender : event.getAttenders()) {
+                if (persons.containsKey(attender)) continue;
+                persons.put(attender, persons.size());
+                addString(strings, attender.getName());
+                addString(strings, attender.getLastName());
+                addString(strings, attender.getEmail());
+            }
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+
+        writeVarLong(data, strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(UTF_8);
+            writeVarLong(data, bytes.length);
+            data.write(bytes);
+        }
+
+        writeVarLong(data, persons.size());
+        for (Person person : persons.keySet()) {
+            writeVarLong(data, referenceOf(strings, person.getName()));
+            writeVarLong(data, referenceOf(strings, person.getLastName()));
+            writeVarLong(data, referenceOf(strings, person.getEmail()));
+        }
+
+        writeVarLong(data, events.size());
+        for (Event event : events) {
+            int flags = (event.getId() != null ? FLAG_ID : 0)
+                    | (event.getStartDate() != null ? FLAG_START : 0)
+                    | (event.getEndDate() != null ? FLAG_END : 0);
+            data.writeByte(flags);
+            if (event.getId() != null) {
+                data.writeLong(event.getId().getMostSignificantBits());
+                data.writeLong(event.getId().getLeastSignificantBits());
+            }
+            writeVarLong(data, referenceOf(strings, event.getTitle()));
+            writeVarLong(data, referenceOf(strings, event.getDescription()));
+            long start = event.getStartDate() != null ? toEpochMinutes(event.getStartDate()) : 0;
+            if (event.getStartDate() != null) writeVarLong(data, zigZag(start));
+            if (event.getEndDate() != null) writeVarLong(data, zigZag(toEpochMinutes(event.getEndDate()) - start));
+            writeVarLong(data, event.getAttenders().size());
+            for (Person attender : event.getAttenders()) writeVarLong(data, persons.get(attender));
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads block written by encodeAll, the stream is not closed
+     */
+    public List<Event> decodeAll(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) throw new IOException("Not a binary event file");
+        int version = data.readUnsignedByte();
+        if (version != VERSION) throw new IOException("Unsupported version of binary event file: " + version);
+
+        String[] strings = new String[readCount(data)];
+        for (int i = 0; i < strings.length; i++) {
+            int size = (int) readVarLong(data);
+            if (size < 0 || size > MAX_STRING_SIZE) throw new IOException("Wrong size of string: " + size);
+            byte[] bytes = new byte[size];
+            data.readFully(bytes);
+            strings[i] = new String(bytes, UTF_8);
+        }
+
+        Person[] persons = new Person[readCount(data)];
+        for (int i = 0; i < persons.length; i++) {
+            persons[i] = new Person.PersonBuilder()
+                    .name(readString(data, strings))
+                    .lastName(readString(data, strings))
+                    .email(readString(data, strings))
+                    .build();
+        }
+
+        int count = readCount(data);
+        List<Event> events = new ArrayList<Event>(count);
+        for (int i = 0; i < count; i++) {
+            int flags = data.readUnsignedByte();
+            Event.EventBuilder builder = new Event.EventBuilder();
+            if ((flags & FLAG_ID) != 0) builder.id(new UUID(data.readLong(), data.readLong()));
+            builder.title(readString(data, strings));
+            builder.description(readString(data, strings));
+            long start = 0;
+            if ((flags & FLAG_START) != 0) {
+                start = unZigZag(readVarLong(data));
+                builder.startDate(fromEpochMinutes(start));
+            }
+            if ((flags & FLAG_END) != 0) builder.endDate(fromEpochMinutes(start + unZigZag(readVarLong(data))));
+            Set<Person> attenders = new HashSet<Person>();
+            int attenderCount = readCount(data);
+            for (int j = 0; j < attenderCount; j++) {
+                long number = readVarLong(data);
+                if (number < 0 || number >= persons.length) throw new IOException("Wrong attender: " + number);
+                attenders.add(persons[(int) number]);
+            }
+            events.add(builder.attendersSet(attenders).build());
+        }
+        return events;
+    }
+
+    private static void addString(Map<String, Integer> strings, String string) {
+        if (string != null && !strings.containsKey(string)) strings.put(string, strings.size());
+    }
+
+    private static long referenceOf(Map<String, Integer> strings, String string) {
+        return string == null ? 0 : strings.get(string) + 1;
+    }
+
+    private static String readString(DataInput data, String[] strings) throws IOException {
+        long reference = readVarLong(data);
+        if (reference < 0 || reference > strings.length) throw new IOException("Wrong string reference: " + reference);
+        return reference == 0 ? null : strings[(int) reference - 1];
+    }
+
+    private static int readCount(DataInput data) throws IOException {
+        long count = readVarLong(data);
+        if (count < 0 || count > MAX_COUNT) throw new IOException("Wrong count: " + count);
+        return (int) count;
+    }
+
+    private static long toEpochMinutes(LocalDateTime date) {
+        return Math.floorDiv(date.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    private static LocalDateTime fromEpochMinutes(long minutes) {
+        return LocalDateTime.ofEpochSecond(minutes * 60, 0, ZoneOffset.UTC);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(DataOutput data, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            data.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        data.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput data) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = data.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
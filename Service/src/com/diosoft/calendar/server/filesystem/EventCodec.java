@@ -0,0 +1,30 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.exception.DateTimeFormatException;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Format of stored event
+ */
+public interface EventCodec {
+
+    /**
+     * @return extension of files in this format with the dot, e.g. ".xml"
+     */
+    String getFileExtension();
+
+    /**
+     * Writes event to the stream, the stream is not closed
+     */
+    void encode(Event event, OutputStream out) throws IOException, JAXBException;
+
+    /**
+     * Reads event written by encode, the stream is not closed
+     */
+    Event decode(InputStream in) throws IOException, JAXBException, DateTimeFormatException;
+}
@@ -4,39 +4,50 @@ import com.diosoft.calendar.server.common.Event;
 import com.diosoft.calendar.server.exception.DateTimeFormatException;
 
 import javax.xml.bind.JAXBException;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
 
+/**
+ * Submits every event file to the pipeline as soon as it is found, the files are parsed while the walk goes on
+ */
 public class EventFileVisitor extends SimpleFileVisitor<Path> {
 
-    private final List<Event> eventList = new ArrayList<Event>();
-    private final JAXBHelper jaxbHelper = new JAXBHelperImpl();
-    private final List<Future<Event>> futures = new ArrayList<Future<Event>>();
-    private final ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final EventCodec codec;
+    private final PathMatcher matcher;
+    private final EventLoadPipeline pipeline;
+
+    EventFileVisitor(EventCodec codec, EventLoadPipeline pipeline) {
+        this.codec = codec;
+        this.pipeline = pipeline;
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:*" + codec.getFileExtension());
+    }
 
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
             throws IOException
     {
         final Path fileEvent = file;
-        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:*.xml");
         if (attrs.isRegularFile() && matcher.matches(fileEvent.getFileName())) {
-           futures.add(executorService.submit(new Callable<Event>() {
-                public Event call() throws IOException, JAXBException, DateTimeFormatException {
-                    return jaxbHelper.read(Files.newBufferedReader(fileEvent));
-                }
-            }));
+            try {
+                boolean loading = pipeline.submit(new Callable<Event>() {
+                    public Event call() throws IOException, JAXBException, DateTimeFormatException {
+                        try (InputStream in = new BufferedInputStream(Files.newInputStream(fileEvent))) {
+                            return codec.decode(in);
+                        }
+                    }
+                });
+//  the pipeline has failed, finish() throws the failure
+                if (!loading) return FileVisitResult.TERMINATE;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while walking " + file);
+            }
         }
         return FileVisitResult.CONTINUE;
     }
-
-    public List<Event> getEventList() throws ExecutionException, InterruptedException {
-        for (Future<Event> f : futures) eventList.add(f.get());
-        executorService.shutdown();
-        return eventList;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.exception.DateTimeFormatException;
+import org.apache.log4j.Logger;
+
+import javax.xml.bind.JAXBException;
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts a directory of event files from one format to another, e.g. xml files of FileSystemImpl to binary:
+ * java EventFormatConverter xml Service/resources/events/ binary Service/resources/events-bin/
+ * Formats: xml (JAXB), stax (the same xml) and binary.
+ */
+public class EventFormatConverter {
+    private static final Logger logger = Logger.getLogger(EventFormatConverter.class);
+
+    public static void main(String[] args) throws IOException, JAXBException, DateTimeFormatException {
+        if (args.length != 4) {
+            System.out.println("Usage: EventFormatConverter <xml|stax|binary> <source directory> <xml|stax|binary> <target directory>");
+            return;
+        }
+        int count = convert(codecOf(args[0]), Paths.get(args[1]), codecOf(args[2]), Paths.get(args[3]));
+        logger.info("Converted " + count + " events from " + args[1] + " to " + args[3]);
+    }
+
+    /**
+     * @return number of converted events
+     */
+    public static int convert(EventCodec sourceCodec, Path sourceDirectory, EventCodec targetCodec, Path targetDirectory)
+            throws IOException, JAXBException, DateTimeFormatException {
+        Files.createDirectories(targetDirectory);
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(sourceDirectory, "*" + sourceCodec.getFileExtension())) {
+            for (Path file : stream) {
+                Event event;
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                    event = sourceCodec.decode(in);
+                }
+                Path targetFile = targetDirectory.resolve(event.getId() + targetCodec.getFileExtension());
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(targetFile))) {
+                    targetCodec.encode(event, out);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static EventCodec codecOf(String format) throws JAXBException {
+        if ("xml".equals(format)) return new XmlEventCodec(new JAXBHelperImpl());
+        if ("stax".equals(format)) return new XmlEventCodec(new StAXHelperImpl());
+        if ("binary".equals(format)) return new BinaryEventCodec();
+        throw new IllegalArgumentException("Unknown format: " + format);
+    }
+}
@@ -0,0 +1,191 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Streaming load of events in three overlapping stages: the source submits files as it finds them,
+ * parsers decode them in parallel and put events into a queue, indexers take events from the queue
+ * and pass them to the consumer concurrently. At most queueCapacity events are being parsed or wait in the queue,
+ * the source blocks when the limit is reached. The first failure stops the load and is thrown by finish.
+ * Progress is logged every PROGRESS_PERIOD_SECONDS, throughput of every stage when the load is finished.
+ */
+final class EventLoadPipeline {
+    private static final Logger logger = Logger.getLogger(EventLoadPipeline.class);
+
+    private static final long PROGRESS_PERIOD_SECONDS = 5;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+//  identity of the marker is checked, its content is never read
+    private static final Event END = new Event.EventBuilder().build();
+
+    private final String source;
+    private final Consumer<Event> consumer;
+    private final int indexerCount;
+    private final ExecutorService parsers;
+    private final ExecutorService indexers;
+    private final ScheduledExecutorService progress;
+    private final BlockingQueue<Event> queue = new LinkedBlockingQueue<Event>();
+    private final Semaphore inFlight;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private final long start = System.nanoTime();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong indexed = new AtomicLong();
+//  time spent in the stage summed over its threads
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong indexNanos = new AtomicLong();
+
+    EventLoadPipeline(String source, Consumer<Event> consumer) {
+        this(source, consumer, Runtime.getRuntime().availableProcessors(),
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    EventLoadPipeline(String source, Consumer<Event> consumer, int parserCount, int indexerCount, int queueCapacity) {
+        if (consumer == null || parserCount < 1 || indexerCount < 1 || queueCapacity < 1) throw new IllegalArgumentException();
+        this.source = source;
+        this.consumer = consumer;
+        this.indexerCount = indexerCount;
+        this.inFlight = new Semaphore(queueCapacity);
+        this.parsers = Executors.newFixedThreadPool(parserCount, daemonThreads("event-load-parser"));
+        this.indexers = Executors.newFixedThreadPool(indexerCount, daemonThreads("event-load-indexer"));
+        for (int i = 0; i < indexerCount; i++) {
+            indexers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    indexLoop();
+                }
+            });
+        }
+        this.progress = Executors.newSingleThreadScheduledExecutor(daemonThreads("event-load-progress"));
+        progress.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                logger.info("Loading events from " + source + ": found " + submitted.get() + ", parsed " + parsed.get()
+                        + ", indexed " + indexed.get() + ", queued " + queue.size());
+            }
+        }, PROGRESS_PERIOD_SECONDS, PROGRESS_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Parses the event by the task in one of parser threads, the task may return null to skip it
+     * @return false if the load has failed and nothing more should be submitted
+     */
+    boolean submit(final Callable<Event> task) throws InterruptedException {
+        if (failure.get() != null) return false;
+        inFlight.acquire();
+        submitted.incrementAndGet();
+        parsers.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (failure.get() != null) {
+                    inFlight.release();
+                    return;
+                }
+                try {
+                    long parseStart = System.nanoTime();
+                    Event event = task.call();
+                    parseNanos.addAndGet(System.nanoTime() - parseStart);
+                    parsed.incrementAndGet();
+                    if (event != null) queue.add(event);
+                    else inFlight.release();
+                } catch (Throwable e) {
+//  an error fails the load too, so the event is never dropped silently
+                    failure.compareAndSet(null, e);
+                    inFlight.release();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Waits until all submitted events are passed to the consumer
+     * @return number of events passed to the consumer
+     * @throws ExecutionException with the first failure of parser or consumer
+     */
+    long finish() throws ExecutionException, InterruptedException {
+        try {
+            parsers.shutdown();
+            parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (int i = 0; i < indexerCount; i++) queue.add(END);
+            indexers.shutdown();
+            indexers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            progress.shutdownNow();
+            parsers.shutdownNow();
+            indexers.shutdownNow();
+        }
+        Throwable e = failure.get();
+        if (e != null) throw new ExecutionException("Loading events from " + source + " failed", e);
+
+        long nanos = System.nanoTime() - start;
+        logger.info("Loaded " + indexed.get() + " events from " + source + " in " + TimeUnit.NANOSECONDS.toMillis(nanos)
+                + " ms (" + rate(indexed.get(), nanos) + " events/s): parse " + stage(parsed.get(), parseNanos.get())
+                + ", index " + stage(indexed.get(), indexNanos.get()));
+        return indexed.get();
+    }
+
+    /**
+     * Stops the load, events which are not passed to the consumer yet are dropped
+     */
+    void cancel() throws InterruptedException {
+        failure.compareAndSet(null, new CancellationException("Loading events from " + source + " is cancelled"));
+        try {
+            finish();
+        } catch (ExecutionException e) {
+//  the failure which caused the cancel is thrown by the caller
+        }
+    }
+
+    private void indexLoop() {
+        while (true) {
+            Event event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (event == END) return;
+            try {
+                if (failure.get() == null) {
+                    long indexStart = System.nanoTime();
+                    consumer.accept(event);
+                    indexNanos.addAndGet(System.nanoTime() - indexStart);
+                    indexed.incrementAndGet();
+                }
+            } catch (Throwable e) {
+//  the indexer keeps taking events, so finish doesn't wait for a dead thread
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        }
+    }
+
+    private static String stage(long count, long busyNanos) {
+        return count + " events in " + TimeUnit.NANOSECONDS.toMillis(busyNanos) + " ms of threads ("
+                + rate(count, busyNanos) + " events/s per thread)";
+    }
+
+    private static long rate(long count, long nanos) {
+        return nanos == 0 ? 0 : count * 1000000000L / nanos;
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicLong number = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
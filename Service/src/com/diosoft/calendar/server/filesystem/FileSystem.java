@@ -6,19 +6,55 @@ import com.diosoft.calendar.server.exception.DateTimeFormatException;
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 public interface FileSystem {
 
-    void write(Event event) throws IOException, JAXBException;
+    /**
+     * Stores event, the event with the same id is replaced
+     * @return future which is completed according to AckPolicy of the file system
+     */
+    CompletableFuture<Void> write(Event event) throws IOException, JAXBException;
 
     Event read(UUID id) throws DateTimeFormatException, IOException, JAXBException, ExecutionException, InterruptedException;
 
     Event read(Path pathToFile) throws DateTimeFormatException, IOException, JAXBException, ExecutionException, InterruptedException;
 
-    boolean delete(UUID id) throws IOException;
+    /**
+     * Deletes event
+     * @return future which is completed with false if there was no such event, according to AckPolicy of the file system
+     */
+    CompletableFuture<Boolean> delete(UUID id) throws IOException;
 
     List<Event>  readAllEventsFromXMLResources() throws IOException, DateTimeFormatException, ExecutionException, InterruptedException;
+
+    /**
+     * Reads all events and passes every event to the consumer as soon as it is parsed,
+     * the consumer is called concurrently from several threads
+     * @return number of events passed to the consumer
+     */
+    long readAllEvents(Consumer<Event> consumer) throws IOException, DateTimeFormatException, ExecutionException, InterruptedException;
+
+    /**
+     * Lists stored events without reading them
+     * @return id of every stored event and time of its last change in milliseconds,
+     * the time may be later than the real change but never earlier
+     */
+    Map<UUID, Long> readEventVersions() throws IOException;
+
+    /**
+     * Reads given events, ids without stored event are skipped
+     */
+    List<Event> readEvents(Collection<UUID> ids) throws IOException, DateTimeFormatException, ExecutionException, InterruptedException;
+
+    /**
+     * @return when futures of write and delete are completed, with NONE the event may be not readable yet
+     */
+    AckPolicy getAckPolicy();
 }
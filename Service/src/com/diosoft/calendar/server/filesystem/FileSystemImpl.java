@@ -2,57 +2,146 @@ package com.diosoft.calendar.server.filesystem;
 
 import com.diosoft.calendar.server.common.Event;
 import com.diosoft.calendar.server.exception.DateTimeFormatException;
+import com.diosoft.calendar.server.util.LatencyRecorder;
+import org.apache.log4j.Logger;
 
 import javax.xml.bind.JAXBException;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.List;
-import java.util.UUID;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
-public class FileSystemImpl implements FileSystem{
+/**
+ * One file per event. With shardLevels n the file of event is kept in n levels of subdirectories named by
+ * the first 2 * n hex digits of its id, e.g. 1b/4e/1b4e28ba-2fa1-11d2-883f-0016d3cca427.xml for 2 levels,
+ * so no directory holds too many files. ShardMigrator moves files of another layout into place,
+ * a sharded file system refuses to start on a directory with event files at its root.
+ * All files are read by parallel walks of the top level shards.
+ * Writes and deletes of one id are applied in order by one task at a time. Operations queued while the task
+ * is busy are collapsed: only the last state is written and all their futures are completed with it,
+ * so disk I/O grows with the number of changed events rather than with the number of operations.
+ * At most maxPendingOperations operations are kept in memory, OverflowPolicy decides what happens to the next one.
+ * With SPILL only writes are bounded: a delete holds no event and is queued over the limit.
+ * Latencies of acknowledgements, depth of the queue, waits in it, rejected and spilled operations are logged
+ * every REPORT_PERIOD_SECONDS if there were operations or some are still queued, and on close.
+ */
+public class FileSystemImpl implements FileSystem, Closeable {
+    private static final Logger logger = Logger.getLogger(FileSystemImpl.class);
 
-    final private JAXBHelperImpl jaxbHelper;
+    static final int MAX_SHARD_LEVELS = 4;
+    private static final int DEFAULT_MAX_PENDING_OPERATIONS = 10000;
+    private static final String SPILL_DIRECTORY = ".spill";
+    private static final String SPILL_EXTENSION = ".spill";
+    private static final long REPORT_PERIOD_SECONDS = 60;
+
+    final private EventCodec codec;
     final private String pathToEvents;
+    final private Path root;
+    final private int shardLevels;
+    final private AckPolicy ackPolicy;
+//  shard directories known to exist
+    final private Set<Path> createdShards = ConcurrentHashMap.newKeySet();
+//  operations waiting for the task of their id, the entry exists while the task is scheduled or running
+    final private ConcurrentMap<UUID, List<PendingOperation>> pendingOperations = new ConcurrentHashMap<UUID, List<PendingOperation>>();
+    final private AtomicLong collapsedOperations = new AtomicLong();
+    final private int maxPendingOperations;
+    final private OverflowPolicy overflowPolicy;
+//  permits of operations kept in memory
+    final private Semaphore capacity;
+    final private Path spillDirectory;
+    final private AtomicLong spillSequence = new AtomicLong();
+    final private AtomicInteger queueDepth = new AtomicInteger();
+    final private AtomicLong rejectedOperations = new AtomicLong();
+    final private AtomicLong spilledOperations = new AtomicLong();
+//  time from the call to the start of the operation, including the wait of BLOCK
+    final private LatencyRecorder queueWait = new LatencyRecorder("queue wait");
+//  time from the call to the acknowledgement
+    final private LatencyRecorder writeLatency;
+    final private LatencyRecorder deleteLatency;
     private ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final ScheduledExecutorService reporter;
+//  operations counted by the last report, changed only by the reporter
+    private long reportedOperations;
 
-    public FileSystemImpl(JAXBHelperImpl jaxbHelper, String pathToEvents) {
-        this.jaxbHelper = jaxbHelper;
-        this.pathToEvents = pathToEvents;
+    public FileSystemImpl(JAXBHelper jaxbHelper, String pathToEvents) {
+        this(new XmlEventCodec(jaxbHelper), pathToEvents, AckPolicy.WRITE);
     }
 
-    @Override
-    public void write(Event event) {
-        final Event e = event;
-        executorService.submit(new Runnable() {
-            public void run() {
-                StringBuilder sb = new StringBuilder();
-                sb.append(pathToEvents).append(e.getId()).append(".xml");
-                Path filePath = Paths.get(sb.toString());
-                Charset charset = Charset.forName("UTF-8");
-                BufferedWriter writer = null;
-                try {
-                    writer = Files.newBufferedWriter(filePath, charset);
-                    jaxbHelper.write(e, writer);
-                    writer.close();
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                } catch (JAXBException e1) {
-                    e1.printStackTrace();
-                }
+    public FileSystemImpl(EventCodec codec, String pathToEvents, AckPolicy ackPolicy) {
+        this(codec, pathToEvents, ackPolicy, 0);
+    }
+
+    /**
+     * @param shardLevels levels of subdirectories, 0 for one flat directory
+     */
+    public FileSystemImpl(EventCodec codec, String pathToEvents, AckPolicy ackPolicy, int shardLevels) {
+        this(codec, pathToEvents, ackPolicy, shardLevels, DEFAULT_MAX_PENDING_OPERATIONS, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param maxPendingOperations writes and deletes which are kept in memory until they are applied
+     * @param overflowPolicy what to do with an operation when maxPendingOperations are pending
+     */
+    public FileSystemImpl(EventCodec codec, String pathToEvents, AckPolicy ackPolicy, int shardLevels,
+                          int maxPendingOperations, OverflowPolicy overflowPolicy) {
+        if (shardLevels < 0 || shardLevels > MAX_SHARD_LEVELS || maxPendingOperations < 1 || overflowPolicy == null)
+            throw new IllegalArgumentException();
+        this.codec = codec;
+        this.pathToEvents = pathToEvents;
+        this.root = Paths.get(pathToEvents);
+        this.shardLevels = shardLevels;
+        this.ackPolicy = ackPolicy;
+        this.writeLatency = new LatencyRecorder("write[" + ackPolicy + "]");
+        this.deleteLatency = new LatencyRecorder("delete[" + ackPolicy + "]");
+        this.maxPendingOperations = maxPendingOperations;
+        this.overflowPolicy = overflowPolicy;
+        this.capacity = new Semaphore(maxPendingOperations);
+        this.spillDirectory = root.resolve(SPILL_DIRECTORY);
+        if (shardLevels > 0) checkNoFlatFiles();
+        if (overflowPolicy == OverflowPolicy.SPILL) deleteSpillFiles();
+
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "file-system-report");
+                thread.setDaemon(true);
+                return thread;
             }
         });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                long operations = writeLatency.getCount() + deleteLatency.getCount() + rejectedOperations.get();
+                if (operations == reportedOperations && queueDepth.get() == 0) return;
+                reportedOperations = operations;
+                logger.info(report());
+            }
+        }, REPORT_PERIOD_SECONDS, REPORT_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public CompletableFuture<Void> write(Event event) throws IOException, JAXBException {
+        PendingOperation operation = new PendingOperation(event.getId(), event, System.nanoTime());
+        enqueue(operation);
+        if (ackPolicy != AckPolicy.NONE) return operation.written;
+        writeLatency.recordSince(operation.start);
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public Event read(UUID id) throws DateTimeFormatException, IOException, JAXBException, ExecutionException, InterruptedException {
-        StringBuilder sb = new StringBuilder();
-        sb.append(pathToEvents).append(id).append(".xml");
-        return read(Paths.get(sb.toString()));
+        return read(pathOf(id));
     }
 
     @Override
@@ -61,34 +150,458 @@ public class FileSystemImpl implements FileSystem{
         Future<Event> future = executorService.submit(new Callable<Event>() {
             @Override
             public Event call() throws IOException, JAXBException, DateTimeFormatException {
-                return jaxbHelper.read(Files.newBufferedReader(file));
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                    return codec.decode(in);
+                }
             }
         });
         return future.get();
     }
 
     @Override
-    public boolean delete(UUID id) throws IOException {
-        final UUID eventId = id;
-        executorService.submit(new Runnable() {
-            public void run() {
-                StringBuilder sb = new StringBuilder();
-                sb.append(pathToEvents).append(eventId).append(".xml");
-                Path path = Paths.get(sb.toString());
+    public CompletableFuture<Boolean> delete(UUID id) throws IOException {
+        PendingOperation operation = new PendingOperation(id, null, System.nanoTime());
+        try {
+            enqueue(operation);
+        } catch (JAXBException e) {
+//  delete is never spilled, nothing is encoded
+            throw new IOException(e);
+        }
+        if (ackPolicy != AckPolicy.NONE) return operation.deleted;
+        deleteLatency.recordSince(operation.start);
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public List<Event> readAllEventsFromXMLResources() throws IOException, DateTimeFormatException, ExecutionException, InterruptedException {
+        final List<Event> eventList = Collections.synchronizedList(new ArrayList<Event>());
+        readAllEvents(eventList::add);
+        return eventList;
+    }
+
+    @Override
+    public long readAllEvents(Consumer<Event> consumer) throws IOException, ExecutionException, InterruptedException {
+        EventLoadPipeline pipeline = new EventLoadPipeline(pathToEvents, consumer);
+        try {
+            walkShards(new EventFileVisitor(codec, pipeline));
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            pipeline.cancel();
+            throw e;
+        }
+        return pipeline.finish();
+    }
+
+    @Override
+    public Map<UUID, Long> readEventVersions() throws IOException {
+        final Map<UUID, Long> versions = new ConcurrentHashMap<UUID, Long>();
+        final String extension = codec.getFileExtension();
+        try {
+            walkShards(new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    UUID id = idOf(file, extension);
+                    if (attrs.isRegularFile() && id != null) versions.put(id, attrs.lastModifiedTime().toMillis());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing " + pathToEvents);
+        }
+        return versions;
+    }
+
+    @Override
+    public List<Event> readEvents(Collection<UUID> ids) throws IOException, DateTimeFormatException, ExecutionException, InterruptedException {
+        List<Future<Event>> futures = new ArrayList<Future<Event>>(ids.size());
+        for (UUID id : ids) {
+            final Path file = pathOf(id);
+            futures.add(executorService.submit(new Callable<Event>() {
+                @Override
+                public Event call() throws IOException, JAXBException, DateTimeFormatException {
+                    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                        return codec.decode(in);
+                    } catch (NoSuchFileException e) {
+                        return null;
+                    }
+                }
+            }));
+        }
+        List<Event> events = new ArrayList<Event>(futures.size());
+        for (Future<Event> future : futures) {
+            Event event = future.get();
+            if (event != null) events.add(event);
+        }
+        return events;
+    }
+
+    @Override
+    public AckPolicy getAckPolicy() {
+        return ackPolicy;
+    }
+
+    public LatencyRecorder getWriteLatency() {
+        return writeLatency;
+    }
+
+    public LatencyRecorder getDeleteLatency() {
+        return deleteLatency;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return writes and deletes which are not applied yet, spilled ones included
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public LatencyRecorder getQueueWait() {
+        return queueWait;
+    }
+
+    public long getRejectedOperations() {
+        return rejectedOperations.get();
+    }
+
+    public long getSpilledOperations() {
+        return spilledOperations.get();
+    }
+
+    /**
+     * @return number of writes and deletes which were replaced by a later operation on the same id
+     */
+    public long getCollapsedOperations() {
+        return collapsedOperations.get();
+    }
+
+    public int getShardLevels() {
+        return shardLevels;
+    }
+
+    /**
+     * Stops reports and logs the last one, queued operations are still applied, later calls fail
+     */
+    @Override
+    public void close() {
+        reporter.shutdownNow();
+        executorService.shutdown();
+        logger.info(report());
+    }
+
+    private String report() {
+        return "Event files " + pathToEvents + ": " + writeLatency + ", " + deleteLatency
+                + ", collapsed " + collapsedOperations.get() + ", queued " + queueDepth.get() + ", " + queueWait
+                + ", rejected " + rejectedOperations.get() + ", spilled " + spilledOperations.get();
+    }
+
+    /**
+     * @return file of the event in the layout with given levels of shards
+     */
+    static Path pathOf(Path root, UUID id, String extension, int shardLevels) {
+        String name = id.toString();
+        Path directory = root;
+        for (int level = 0; level < shardLevels; level++) directory = directory.resolve(name.substring(2 * level, 2 * level + 2));
+        return directory.resolve(name + extension);
+    }
+
+    /**
+     * @return id of the event kept in the file or null if it is not an event file
+     */
+    static UUID idOf(Path file, String extension) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(extension)) return null;
+        try {
+            return UUID.fromString(name.substring(0, name.length() - extension.length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Path pathOf(UUID id) {
+        return pathOf(root, id, codec.getFileExtension(), shardLevels);
+    }
+
+//  files of the root are visited by the calling thread, every top level shard is walked by its own task,
+//  so the visitor must be thread-safe
+    private void walkShards(final FileVisitor<Path> visitor) throws IOException, InterruptedException {
+        List<Path> shards = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path)) shards.add(path);
+            }
+        }
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), 1, visitor);
+        if (shards.isEmpty()) return;
+
+        ExecutorService walkers = Executors.newFixedThreadPool(Math.min(shards.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Void>> walks = new ArrayList<Future<Void>>(shards.size());
+            for (final Path shard : shards) {
+                walks.add(walkers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        Files.walkFileTree(shard, visitor);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> walk : walks) {
                 try {
-                    Files.delete(path);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    walk.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new IOException(e.getCause());
                 }
             }
+        } finally {
+            walkers.shutdownNow();
+        }
+    }
+
+    private void enqueue(PendingOperation operation) throws IOException, JAXBException {
+        admit(operation);
+        queueDepth.incrementAndGet();
+        final UUID id = operation.id;
+        final boolean[] idle = new boolean[1];
+        pendingOperations.compute(id, (key, operations) -> {
+            if (operations == null) {
+                operations = new ArrayList<PendingOperation>();
+                idle[0] = true;
+            }
+            operations.add(operation);
+            return operations;
         });
-        return true;
+        if (!idle[0]) return;
+        try {
+            executorService.submit(new Runnable() {
+                public void run() {
+                    applyPendingOperations(id);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+//  no task takes the operations of the id, the ones queued meanwhile included
+            List<PendingOperation> operations = pendingOperations.remove(id);
+            if (operations != null) fail(operations, e);
+            throw e;
+        }
     }
 
-    @Override
-    public List<Event> readAllEventsFromXMLResources() throws IOException, DateTimeFormatException, ExecutionException, InterruptedException {
-        EventFileVisitor eventFileVisitor = new EventFileVisitor();
-        Files.walkFileTree(Paths.get(pathToEvents), eventFileVisitor);
-        return eventFileVisitor.getEventList();
+//  takes a permit of capacity or applies the overflow policy
+    private void admit(PendingOperation operation) throws IOException, JAXBException {
+        if (capacity.tryAcquire()) {
+            operation.holdsCapacity = true;
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    capacity.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for persistence queue");
+                }
+                operation.holdsCapacity = true;
+                break;
+            case REJECT:
+                rejectedOperations.incrementAndGet();
+                throw new IOException("Persistence queue is full, " + maxPendingOperations + " operations are pending");
+            case SPILL:
+//  delete holds no event, it is queued over the limit
+                if (operation.event != null) spill(operation);
+                break;
+        }
+    }
+
+    private void spill(PendingOperation operation) throws IOException, JAXBException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(operation.event, out);
+        Files.createDirectories(spillDirectory);
+        Path file = spillDirectory.resolve(operation.id + "-" + spillSequence.incrementAndGet() + SPILL_EXTENSION);
+        writeFully(file, out.toByteArray());
+        operation.spillFile = file;
+        operation.event = null;
+        spilledOperations.incrementAndGet();
+    }
+
+//  spill files left by a stopped server belong to writes which were never acknowledged
+    private void deleteSpillFiles() {
+        if (!Files.isDirectory(spillDirectory)) return;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spillDirectory, "*" + SPILL_EXTENSION)) {
+            for (Path file : stream) Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Can't delete spill files in " + spillDirectory + ": " + e.getMessage());
+        }
+    }
+
+//  files at the root belong to the flat layout and would never be read
+    private void checkNoFlatFiles() {
+        if (!Files.isDirectory(root)) return;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "*" + codec.getFileExtension())) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) throw new IllegalStateException("Event file " + file + " is not in "
+                        + shardLevels + " levels of shards, move files with ShardMigrator first");
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't check layout of " + root, e);
+        }
+    }
+
+    private void release(PendingOperation operation) {
+        if (operation.released) return;
+        operation.released = true;
+        if (operation.spillFile != null) {
+            try {
+                Files.deleteIfExists(operation.spillFile);
+            } catch (IOException e) {
+                logger.warn("Can't delete spill file " + operation.spillFile + ": " + e.getMessage());
+            }
+        }
+        if (operation.holdsCapacity) capacity.release();
+        queueDepth.decrementAndGet();
+    }
+
+//  the only task of the id, takes operations queued so far until there are none
+    private void applyPendingOperations(UUID id) {
+        while (true) {
+            final List<PendingOperation> batch = new ArrayList<PendingOperation>();
+            pendingOperations.compute(id, (key, operations) -> {
+                if (operations.isEmpty()) return null;
+                batch.addAll(operations);
+                return new ArrayList<PendingOperation>();
+            });
+            if (batch.isEmpty()) return;
+            try {
+                apply(id, batch);
+            } catch (RuntimeException | Error e) {
+//  the entry is removed before the callers learn of the failure, so their next operation starts a new task
+                logger.error("Can't apply operations of event " + id, e);
+                List<PendingOperation> operations = pendingOperations.remove(id);
+                fail(batch, e);
+                if (operations != null) fail(operations, e);
+                throw e;
+            }
+        }
+    }
+
+//  applies only the last operation, results of the others are derived from the order of operations
+    private void apply(UUID id, List<PendingOperation> batch) {
+        PendingOperation last = batch.get(batch.size() - 1);
+        collapsedOperations.addAndGet(batch.size() - 1);
+        for (PendingOperation operation : batch) queueWait.recordSince(operation.start);
+        boolean exists;
+        try {
+            Path file = pathOf(id);
+            exists = batch.size() > 1 && Files.exists(file);
+            if (last.spillFile != null) {
+                moveSpillFile(last.spillFile, file);
+            } else if (last.write) {
+                writeFile(last.event);
+            } else {
+                boolean deleted = Files.deleteIfExists(file);
+                if (deleted && ackPolicy == AckPolicy.FSYNC) forceDirectory(file.getParent());
+                if (batch.size() == 1) exists = deleted;
+            }
+        } catch (IOException | JAXBException | RuntimeException e) {
+            logger.error("Can't " + (last.write ? "write" : "delete") + " event " + id, e);
+            fail(batch, e);
+            return;
+        }
+        for (PendingOperation operation : batch) {
+            release(operation);
+            recordLatency(operation);
+            if (operation.write) {
+                operation.written.complete(null);
+                exists = true;
+            } else {
+                operation.deleted.complete(exists);
+                exists = false;
+            }
+        }
+    }
+
+//  skips operations which are already completed
+    private void fail(List<PendingOperation> operations, Throwable e) {
+        for (PendingOperation operation : operations) {
+            release(operation);
+            boolean failed = operation.write ? operation.written.completeExceptionally(e) : operation.deleted.completeExceptionally(e);
+            if (failed) recordLatency(operation);
+        }
+    }
+
+    private void recordLatency(PendingOperation operation) {
+        if (ackPolicy != AckPolicy.NONE) (operation.write ? writeLatency : deleteLatency).recordSince(operation.start);
+    }
+
+    private void writeFile(Event event) throws IOException, JAXBException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(event, out);
+
+        Path file = pathOf(event.getId());
+        if (shardLevels > 0) createShard(file.getParent());
+        writeFully(file, out.toByteArray());
+        if (ackPolicy == AckPolicy.FSYNC) forceDirectory(file.getParent());
+    }
+
+    private void writeFully(Path file, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+            if (ackPolicy == AckPolicy.FSYNC) channel.force(true);
+        }
+    }
+
+//  spill file is already encoded and forced if needed, so it is renamed into place
+    private void moveSpillFile(Path spillFile, Path file) throws IOException {
+        if (shardLevels > 0) createShard(file.getParent());
+        Files.move(spillFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (ackPolicy == AckPolicy.FSYNC) forceDirectory(file.getParent());
+    }
+
+    private void createShard(Path shard) throws IOException {
+        if (createdShards.contains(shard)) return;
+        Files.createDirectories(shard);
+//  new directories are durable only when their parents are forced
+        if (ackPolicy == AckPolicy.FSYNC) {
+            for (Path directory = shard.getParent(); directory != null && directory.startsWith(root); directory = directory.getParent()) {
+                forceDirectory(directory);
+            }
+        }
+        createdShards.add(shard);
+    }
+
+//  makes creation or deletion of file durable, not every platform allows to open a directory
+    private void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Can't force directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private static final class PendingOperation {
+        final UUID id;
+        final boolean write;
+        final long start;
+        final CompletableFuture<Void> written = new CompletableFuture<Void>();
+        final CompletableFuture<Boolean> deleted = new CompletableFuture<Boolean>();
+//  set before the operation is queued
+        Event event;
+        Path spillFile;
+        boolean holdsCapacity;
+//  capacity and spill file are given back once
+        boolean released;
+
+        PendingOperation(UUID id, Event event, long start) {
+            this.id = id;
+            this.write = event != null;
+            this.event = event;
+            this.start = start;
+        }
     }
 }
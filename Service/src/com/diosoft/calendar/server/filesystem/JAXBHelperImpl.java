@@ -18,27 +18,52 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Thread-safe: JAXBContext is created once, every thread uses its own Marshaller and Unmarshaller
+ * because they are not thread-safe and cheap to keep.
+ */
 public class JAXBHelperImpl implements JAXBHelper {
 
+    private final JAXBContext context;
+    private final ThreadLocal<Marshaller> marshaller = new ThreadLocal<Marshaller>();
+    private final ThreadLocal<Unmarshaller> unmarshaller = new ThreadLocal<Unmarshaller>();
+
+    public JAXBHelperImpl() throws JAXBException {
+        context = JAXBContext.newInstance(EventListAdapter.class, EventAdapter.class);
+    }
+
     @Override
     public void write(Event event, BufferedWriter writer) throws IOException, JAXBException {
         EventAdapter eventAdapter = new EventAdapter(event);
-        JAXBContext context = JAXBContext.newInstance(EventAdapter.class);
-
-        Marshaller m = context.createMarshaller();
-        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-        m.marshal(eventAdapter, writer);
+        getMarshaller().marshal(eventAdapter, writer);
     }
 
     @Override
     public Event read(BufferedReader reader) throws JAXBException, DateTimeFormatException {
-        JAXBContext context = JAXBContext.newInstance(EventListAdapter.class);
-        Unmarshaller um = context.createUnmarshaller();
-        EventAdapter eventAdapter = (EventAdapter) um.unmarshal(reader);
+        EventAdapter eventAdapter = (EventAdapter) getUnmarshaller().unmarshal(reader);
 
         return eventAdapterToEvent(eventAdapter);
     }
 
+    private Marshaller getMarshaller() throws JAXBException {
+        Marshaller m = marshaller.get();
+        if (m == null) {
+            m = context.createMarshaller();
+            m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            marshaller.set(m);
+        }
+        return m;
+    }
+
+    private Unmarshaller getUnmarshaller() throws JAXBException {
+        Unmarshaller um = unmarshaller.get();
+        if (um == null) {
+            um = context.createUnmarshaller();
+            unmarshaller.set(um);
+        }
+        return um;
+    }
+
     private Event eventAdapterToEvent(EventAdapter eventAdapter) throws DateTimeFormatException {
 
         Set<PersonAdapter> personAdapterList = eventAdapter.getAttenders();
@@ -0,0 +1,594 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.exception.DateTimeFormatException;
+import com.diosoft.calendar.server.util.LatencyRecorder;
+import org.apache.log4j.Logger;
+
+import javax.xml.bind.JAXBException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * FileSystem backed by an append-only log of publish and remove records split into segments,
+ * events are kept in the format of the codec.
+ * Every write is one sequential append to the active segment, an in-memory index keeps the position
+ * of the last record of every live event. The log is replayed in the constructor: a torn record at the end
+ * of the last segment is cut off, any other damaged record stops the start.
+ * Compaction runs periodically when dead records take more than a half of the log: live records of sealed
+ * segments are appended again and the sealed segments are deleted, oldest first.
+ * Writes are committed in groups: the commit thread takes all records queued while the previous group was written,
+ * up to batchSize records or until maxDelayMicros after the first of them, appends them with one write and forces
+ * the segment once if AckPolicy is FSYNC, a group whose force fails is cut off the segment again.
+ * Callers wait on their futures which are completed by the group.
+ * Records which are queued but not committed yet are served by read, so with AckPolicy NONE an event
+ * can be read back right after write. Delete of an id which is neither in the log nor queued writes nothing.
+ * Segments are sealed and mapped into memory when the next segment is started, reads of their events decode
+ * the mapped record in place instead of reading the file.
+ */
+public class LogFileSystemImpl implements FileSystem, Closeable {
+    private static final Logger logger = Logger.getLogger(LogFileSystemImpl.class);
+
+    private static final long DEFAULT_MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final long DEFAULT_COMPACTION_PERIOD_SECONDS = 60;
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    private static final long DEFAULT_MAX_DELAY_MICROS = 0;
+    private static final double GARBAGE_RATIO = 0.5;
+
+    private final EventCodec codec;
+    private final Path pathToLog;
+    private final long maxSegmentSize;
+    private final AckPolicy ackPolicy;
+    private final int batchSize;
+    private final long maxDelayNanos;
+//  time from the call to the acknowledgement
+    private final LatencyRecorder writeLatency;
+    private final LatencyRecorder deleteLatency;
+    private final ConcurrentMap<UUID, Position> index = new ConcurrentHashMap<UUID, Position>();
+    private final ConcurrentNavigableMap<Long, LogSegment> segments = new ConcurrentSkipListMap<Long, LogSegment>();
+    private final ScheduledExecutorService compactionExecutor;
+    private final BlockingQueue<PendingRecord> commitQueue = new LinkedBlockingQueue<PendingRecord>();
+//  the last queued record of every id until it is committed or failed
+    private final ConcurrentMap<UUID, PendingRecord> uncommitted = new ConcurrentHashMap<UUID, PendingRecord>();
+    private final Thread commitThread;
+    private volatile boolean closed;
+//  changed only by the commit thread
+    private volatile long committedBatches;
+    private volatile long committedRecords;
+
+//  guards appends, activeSegment and counters
+    private final Object appendLock = new Object();
+    private LogSegment activeSegment;
+    private long totalBytes;
+    private long liveBytes;
+
+    public LogFileSystemImpl(EventCodec codec, String pathToLog) throws IOException {
+        this(codec, pathToLog, AckPolicy.WRITE, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MICROS);
+    }
+
+    public LogFileSystemImpl(EventCodec codec, String pathToLog, AckPolicy ackPolicy, int batchSize,
+                             long maxDelayMicros) throws IOException {
+        this(codec, pathToLog, ackPolicy, batchSize, maxDelayMicros, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_COMPACTION_PERIOD_SECONDS);
+    }
+
+    public LogFileSystemImpl(EventCodec codec, String pathToLog, AckPolicy ackPolicy, int batchSize, long maxDelayMicros,
+                             long maxSegmentSize, long compactionPeriodSeconds) throws IOException {
+        if (codec == null || pathToLog == null || ackPolicy == null || batchSize < 1 || maxDelayMicros < 0
+                || maxSegmentSize < 1 || compactionPeriodSeconds < 1)
+            throw new IllegalArgumentException();
+        this.codec = codec;
+        this.pathToLog = Paths.get(pathToLog);
+        this.maxSegmentSize = maxSegmentSize;
+        this.ackPolicy = ackPolicy;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.writeLatency = new LatencyRecorder("write[" + ackPolicy + "]");
+        this.deleteLatency = new LatencyRecorder("delete[" + ackPolicy + "]");
+
+        Files.createDirectories(this.pathToLog);
+        replay();
+
+        commitThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commitLoop();
+            }
+        }, "event-log-commit");
+        commitThread.setDaemon(true);
+        commitThread.start();
+
+        compactionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "event-log-compaction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        compactionExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    logger.error("Compaction of event log failed", e);
+                }
+            }
+        }, compactionPeriodSeconds, compactionPeriodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public CompletableFuture<Void> write(Event event) throws IOException, JAXBException {
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> committed = enqueue(LogSegment.PUT, event.getId(), marshal(event), start);
+        if (ackPolicy == AckPolicy.NONE) {
+            writeLatency.recordSince(start);
+            return CompletableFuture.completedFuture(null);
+        }
+        return committed.thenApply(put -> null);
+    }
+
+    /**
+     * @return event or null if there is no live event with the id in the log
+     */
+    @Override
+    public Event read(UUID id) throws DateTimeFormatException, IOException, JAXBException {
+        PendingRecord pending = uncommitted.get(id);
+        if (pending != null) return pending.type == LogSegment.PUT ? unmarshal(pending.payload.duplicate()) : null;
+        while (true) {
+            Position position = index.get(id);
+            if (position == null) return null;
+            LogSegment segment = segments.get(position.segment);
+            try {
+                if (segment != null) {
+                    LogSegment.Record record = segment.read(position.offset);
+                    if (record == null) throw new IOException("Damaged record of event " + id + " in " + segment);
+                    return unmarshal(record.payload);
+                }
+            } catch (ClosedChannelException e) {
+//  segment was compacted while reading
+            }
+            if (index.get(id) == position) throw new IOException("Record of event " + id + " is lost");
+        }
+    }
+
+    /**
+     * Reads single event file in the format of the codec, e.g. to import events of FileSystemImpl
+     */
+    @Override
+    public Event read(Path pathToFile) throws DateTimeFormatException, IOException, JAXBException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(pathToFile))) {
+            return codec.decode(in);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(UUID id) throws IOException {
+        long start = System.nanoTime();
+//  commit puts the id into the index before it drops the queued record, so a live event is always seen
+        if (!uncommitted.containsKey(id) && !index.containsKey(id)) return CompletableFuture.completedFuture(false);
+        CompletableFuture<Boolean> committed = enqueue(LogSegment.REMOVE, id, null, start);
+        if (ackPolicy == AckPolicy.NONE) {
+            deleteLatency.recordSince(start);
+            return CompletableFuture.completedFuture(true);
+        }
+        return committed;
+    }
+
+    /**
+     * @return live events of the log in the order they were written
+     */
+    @Override
+    public List<Event> readAllEventsFromXMLResources() throws IOException, DateTimeFormatException {
+        List<UUID> ids = idsInLogOrder();
+        List<Event> eventList = readEvents(ids);
+        logger.info("Read " + eventList.size() + " events from log " + pathToLog);
+        return eventList;
+    }
+
+    /**
+     * Records are read in the order they were written and decoded in parallel
+     */
+    @Override
+    public long readAllEvents(Consumer<Event> consumer) throws ExecutionException, InterruptedException {
+        EventLoadPipeline pipeline = new EventLoadPipeline(pathToLog.toString(), consumer);
+        try {
+            for (final UUID id : idsInLogOrder()) {
+                boolean loading = pipeline.submit(new Callable<Event>() {
+                    @Override
+                    public Event call() throws IOException, JAXBException, DateTimeFormatException {
+                        return read(id);
+                    }
+                });
+                if (!loading) break;
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            pipeline.cancel();
+            throw e;
+        }
+        return pipeline.finish();
+    }
+
+    /**
+     * Time of change of every event is the time of the last change of its segment
+     */
+    @Override
+    public Map<UUID, Long> readEventVersions() throws IOException {
+        Map<Long, Long> segmentVersions = new HashMap<Long, Long>();
+        for (LogSegment segment : segments.values()) {
+            try {
+                segmentVersions.put(segment.getSequence(), segment.lastModified());
+            } catch (IOException e) {
+//  deleted by compaction, its records are in the active segment now
+            }
+        }
+        long now = System.currentTimeMillis();
+        Map<UUID, Long> versions = new HashMap<UUID, Long>();
+        for (Map.Entry<UUID, Position> entry : index.entrySet()) {
+            Long version = segmentVersions.get(entry.getValue().segment);
+            versions.put(entry.getKey(), version != null ? version : now);
+        }
+        return versions;
+    }
+
+    @Override
+    public List<Event> readEvents(Collection<UUID> ids) throws IOException, DateTimeFormatException {
+        List<Event> eventList = new ArrayList<Event>(ids.size());
+        for (UUID id : ids) {
+            try {
+                Event event = read(id);
+                if (event != null) eventList.add(event);
+            } catch (JAXBException e) {
+                throw new IOException("Can't read event " + id, e);
+            }
+        }
+        return eventList;
+    }
+
+    /**
+     * Rewrites live records of sealed segments to the end of the log and deletes sealed segments
+     * if dead records take more than GARBAGE_RATIO of the log.
+     */
+    public void compact() throws IOException {
+        List<LogSegment> sealed;
+        synchronized (appendLock) {
+            if (totalBytes == 0 || totalBytes - liveBytes < totalBytes * GARBAGE_RATIO) return;
+            if (activeSegment.size() > 0) roll();
+            sealed = new ArrayList<LogSegment>(segments.headMap(activeSegment.getSequence()).values());
+        }
+        if (sealed.isEmpty()) return;
+
+        long before = totalBytes();
+        for (LogSegment segment : sealed) {
+            long offset = 0;
+            LogSegment.Record record;
+            while ((record = segment.read(offset)) != null) {
+                if (record.type == LogSegment.PUT) copyIfLive(segment, record);
+                offset += record.size;
+            }
+        }
+        synchronized (appendLock) {
+            activeSegment.force();
+            for (LogSegment segment : sealed) {
+                segments.remove(segment.getSequence());
+                totalBytes -= segment.size();
+                segment.delete();
+            }
+        }
+        logger.info("Event log compacted from " + before + " to " + totalBytes() + " bytes");
+    }
+
+    @Override
+    public AckPolicy getAckPolicy() {
+        return ackPolicy;
+    }
+
+    public LatencyRecorder getWriteLatency() {
+        return writeLatency;
+    }
+
+    public LatencyRecorder getDeleteLatency() {
+        return deleteLatency;
+    }
+
+    public int getMappedSegments() {
+        int mapped = 0;
+        for (LogSegment segment : segments.values()) {
+            if (segment.isMapped()) mapped++;
+        }
+        return mapped;
+    }
+
+    public double getAverageBatchSize() {
+        long batches = committedBatches;
+        return batches == 0 ? 0 : (double) committedRecords / batches;
+    }
+
+    /**
+     * Commits queued records and closes segments, later writes fail
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (commitQueue) {
+            if (closed) return;
+            closed = true;
+            commitQueue.add(PendingRecord.CLOSE);
+        }
+        compactionExecutor.shutdown();
+        try {
+            commitThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingRecord rest;
+        while ((rest = commitQueue.poll()) != null) {
+            if (rest == PendingRecord.CLOSE) continue;
+            uncommitted.remove(rest.id, rest);
+            rest.future.completeExceptionally(new IOException("Event log is closed"));
+        }
+        logger.info(writeLatency + ", " + deleteLatency + ", average batch " + getAverageBatchSize());
+        synchronized (appendLock) {
+            activeSegment.force();
+            for (LogSegment segment : segments.values()) segment.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LogFileSystemImpl{pathToLog=" + pathToLog + ", segments=" + segments.values() + ", events=" + index.size() + '}';
+    }
+
+    private List<UUID> idsInLogOrder() {
+        List<Map.Entry<UUID, Position>> entries = new ArrayList<Map.Entry<UUID, Position>>(index.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<UUID, Position>>() {
+            @Override
+            public int compare(Map.Entry<UUID, Position> o1, Map.Entry<UUID, Position> o2) {
+                return o1.getValue().compareTo(o2.getValue());
+            }
+        });
+        List<UUID> ids = new ArrayList<UUID>(entries.size());
+        for (Map.Entry<UUID, Position> entry : entries) ids.add(entry.getKey());
+        return ids;
+    }
+
+    private long totalBytes() {
+        synchronized (appendLock) {
+            return totalBytes;
+        }
+    }
+
+    private void replay() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(pathToLog, "*" + LogSegment.EXTENSION)) {
+            for (Path file : stream) files.add(file);
+        }
+        Collections.sort(files);
+
+        for (int i = 0; i < files.size(); i++) {
+            LogSegment segment = openSegment(LogSegment.parseSequence(files.get(i)));
+            segments.put(segment.getSequence(), segment);
+//  only the last segment may have a torn tail to cut off, the others are scanned through the mapping
+            if (i < files.size() - 1) segment.seal();
+            long offset = 0;
+            LogSegment.Record record;
+            while ((record = segment.read(offset)) != null) {
+                Position previous;
+                if (record.type == LogSegment.PUT) {
+                    Position position = new Position(segment.getSequence(), record.offset, record.size);
+                    previous = index.put(record.id, position);
+                    liveBytes += position.size;
+                } else {
+                    previous = index.remove(record.id);
+                }
+                if (previous != null) liveBytes -= previous.size;
+                offset += record.size;
+            }
+            if (offset < segment.size()) {
+                if (i < files.size() - 1) throw new IOException("Damaged record at " + offset + " in " + segment);
+                logger.warn("Torn record at " + offset + " in " + segment + " is cut off");
+                segment.truncate(offset);
+            }
+            totalBytes += segment.size();
+        }
+
+        if (segments.isEmpty()) {
+            activeSegment = openSegment(1);
+            segments.put(activeSegment.getSequence(), activeSegment);
+        } else {
+            activeSegment = segments.lastEntry().getValue();
+        }
+        logger.info("Event log " + pathToLog + " replayed: " + segments.size() + " segments, " + index.size() + " events");
+    }
+
+    private CompletableFuture<Boolean> enqueue(byte type, UUID id, ByteBuffer payload, long start) throws IOException {
+        PendingRecord pending = new PendingRecord(type, id, payload, LogSegment.encode(type, id, payload), start);
+//  nothing is queued after CLOSE
+        synchronized (commitQueue) {
+            if (closed) throw new IOException("Event log is closed");
+            uncommitted.put(id, pending);
+            commitQueue.add(pending);
+        }
+        return pending.future;
+    }
+
+    private void commitLoop() {
+        List<PendingRecord> batch = new ArrayList<PendingRecord>(batchSize);
+        boolean closing = false;
+        while (!closing) {
+            try {
+                PendingRecord next = commitQueue.take();
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (true) {
+                    if (next == PendingRecord.CLOSE) {
+                        closing = true;
+                        break;
+                    }
+                    batch.add(next);
+                    if (batch.size() >= batchSize) break;
+                    next = commitQueue.poll();
+                    if (next == null) {
+                        long delay = deadline - System.nanoTime();
+                        if (delay <= 0) break;
+                        next = commitQueue.poll(delay, TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                closing = true;
+            }
+            if (!batch.isEmpty()) commit(batch);
+            batch.clear();
+        }
+    }
+
+//  one write and at most one force for the whole group, index is changed only after the group is written
+    private void commit(List<PendingRecord> batch) {
+        int bytes = 0;
+        for (PendingRecord pending : batch) bytes += pending.record.remaining();
+        ByteBuffer records = ByteBuffer.allocate(bytes);
+        for (PendingRecord pending : batch) records.put(pending.record);
+        records.flip();
+
+        try {
+            synchronized (appendLock) {
+                if (activeSegment.size() >= maxSegmentSize) roll();
+                long offset = activeSegment.append(records);
+                if (ackPolicy == AckPolicy.FSYNC) forceOrCutOff(offset);
+                totalBytes += bytes;
+                for (PendingRecord pending : batch) {
+                    int size = pending.record.limit();
+                    Position previous;
+                    if (pending.type == LogSegment.PUT) {
+                        previous = index.put(pending.id, new Position(activeSegment.getSequence(), offset, size));
+                        liveBytes += size;
+                        pending.result = true;
+                    } else {
+                        previous = index.remove(pending.id);
+                        pending.result = previous != null;
+                    }
+                    if (previous != null) liveBytes -= previous.size;
+                    offset += size;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Can't commit " + batch.size() + " records to event log", e);
+            for (PendingRecord pending : batch) {
+                uncommitted.remove(pending.id, pending);
+                pending.future.completeExceptionally(e);
+            }
+            return;
+        }
+        committedBatches++;
+        committedRecords += batch.size();
+        for (PendingRecord pending : batch) {
+            uncommitted.remove(pending.id, pending);
+            if (ackPolicy != AckPolicy.NONE)
+                (pending.type == LogSegment.PUT ? writeLatency : deleteLatency).recordSince(pending.start);
+            pending.future.complete(pending.result);
+        }
+    }
+
+//  must be called under appendLock; records which are not forced are cut off, so a write or delete reported
+//  as failed is not replayed on the next start; records which can't be cut off stay and count as committed
+    private void forceOrCutOff(long offset) throws IOException {
+        try {
+            activeSegment.force();
+        } catch (IOException e) {
+            try {
+                activeSegment.truncate(offset);
+            } catch (IOException | RuntimeException truncateFailure) {
+                logger.error("Can't cut off records which are not forced in " + activeSegment, truncateFailure);
+                return;
+            }
+            throw e;
+        }
+    }
+
+//  must be called under appendLock
+    private Position append(byte type, UUID id, ByteBuffer payload) throws IOException {
+        if (activeSegment.size() >= maxSegmentSize) roll();
+        long offset = activeSegment.append(type, id, payload);
+        int size = (int) (activeSegment.size() - offset);
+        totalBytes += size;
+        return new Position(activeSegment.getSequence(), offset, size);
+    }
+
+//  must be called under appendLock
+    private void roll() throws IOException {
+        activeSegment.force();
+        activeSegment.seal();
+        activeSegment = openSegment(activeSegment.getSequence() + 1);
+        segments.put(activeSegment.getSequence(), activeSegment);
+    }
+
+//  the only place where segments are opened
+    LogSegment openSegment(long sequence) throws IOException {
+        return LogSegment.open(pathToLog, sequence);
+    }
+
+    private void copyIfLive(LogSegment segment, LogSegment.Record record) throws IOException {
+        synchronized (appendLock) {
+            Position position = index.get(record.id);
+            if (position == null || position.segment != segment.getSequence() || position.offset != record.offset) return;
+            Position copy = append(LogSegment.PUT, record.id, record.payload);
+            index.put(record.id, copy);
+        }
+    }
+
+    private ByteBuffer marshal(Event event) throws IOException, JAXBException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(event, out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private Event unmarshal(ByteBuffer payload) throws IOException, JAXBException, DateTimeFormatException {
+        return codec.decode(new ByteBufferInputStream(payload));
+    }
+
+    private static final class PendingRecord {
+        static final PendingRecord CLOSE = new PendingRecord((byte) 0, null, null, null, 0);
+
+        final byte type;
+        final UUID id;
+//  null for REMOVE
+        final ByteBuffer payload;
+        final ByteBuffer record;
+        final long start;
+        final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        boolean result;
+
+        PendingRecord(byte type, UUID id, ByteBuffer payload, ByteBuffer record, long start) {
+            this.type = type;
+            this.id = id;
+            this.payload = payload;
+            this.record = record;
+            this.start = start;
+        }
+    }
+
+    private static final class Position implements Comparable<Position> {
+        final long segment;
+        final long offset;
+        final int size;
+
+        Position(long segment, long offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            if (segment != other.segment) return segment < other.segment ? -1 : 1;
+            return offset < other.offset ? -1 : (offset == other.offset ? 0 : 1);
+        }
+    }
+}
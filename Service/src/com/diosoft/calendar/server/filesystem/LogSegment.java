@@ -0,0 +1,225 @@
+package com.diosoft.calendar.server.filesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * One file of the event log. Records are only appended to the end of the file:
+ * [int length of body][int crc32 of body][byte type][long most bits of id][long least bits of id][payload].
+ * Segment is not thread-safe for appends, LogFileSystemImpl serializes them; reads by position may be concurrent.
+ * A sealed segment is never appended again and is mapped into memory: its records are read from the mapped pages
+ * and payloads are slices of the mapping, nothing is copied to the heap.
+ */
+class LogSegment implements Closeable {
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    static final String EXTENSION = ".log";
+
+    private static final int HEADER_SIZE = 8;
+    private static final int ID_SIZE = 16;
+    private static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+    private static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+
+    private final long sequence;
+    private final Path path;
+    private final FileChannel channel;
+    private volatile long size;
+//  set by seal, dropped on close; a reader which took it keeps a valid mapping
+    private volatile ByteBuffer mapped;
+
+    LogSegment(long sequence, Path path) throws IOException {
+        this.sequence = sequence;
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.size = channel.size();
+    }
+
+    static LogSegment open(Path directory, long sequence) throws IOException {
+        return new LogSegment(sequence, directory.resolve(fileName(sequence)));
+    }
+
+    static String fileName(long sequence) {
+        return String.format("%020d", sequence) + EXTENSION;
+    }
+
+    static long parseSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return record which can be appended to the segment
+     */
+    static ByteBuffer encode(byte type, UUID id, ByteBuffer payload) {
+        int payloadSize = payload == null ? 0 : payload.remaining();
+        ByteBuffer body = ByteBuffer.allocate(1 + ID_SIZE + payloadSize);
+        body.put(type).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        if (payload != null) body.put(payload.duplicate());
+        body.flip();
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + body.remaining());
+        record.putInt(body.remaining()).putInt(crc(body)).put(body);
+        record.flip();
+        return record;
+    }
+
+    /**
+     * @return offset of the appended record
+     */
+    long append(byte type, UUID id, ByteBuffer payload) throws IOException {
+        return append(encode(type, id, payload));
+    }
+
+    /**
+     * Appends encoded records with one write, the size of the segment is not changed if the write fails
+     * @return offset of the first appended record
+     */
+    long append(ByteBuffer records) throws IOException {
+        if (mapped != null) throw new IllegalStateException(this + " is sealed");
+        long offset = size;
+        long position = offset;
+        try {
+            while (records.hasRemaining()) position += channel.write(records, position);
+        } catch (IOException e) {
+            try {
+                channel.truncate(offset);
+            } catch (IOException ignored) {
+//  torn tail is cut off on the next start
+            }
+            throw e;
+        }
+        size = position;
+        return offset;
+    }
+
+    /**
+     * @return record at the offset or null if there is no whole valid record, e.g. the tail of the file is torn
+     */
+    Record read(long offset) throws IOException {
+        if (offset < 0 || offset + HEADER_SIZE > size) return null;
+        ByteBuffer map = mapped;
+        ByteBuffer header;
+        if (map != null) {
+            header = map.duplicate();
+            header.position((int) offset);
+        } else {
+            header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, offset);
+            header.flip();
+        }
+        int bodySize = header.getInt();
+        int crc = header.getInt();
+        if (bodySize < 1 + ID_SIZE || bodySize > MAX_BODY_SIZE || offset + HEADER_SIZE + bodySize > size) return null;
+
+        ByteBuffer body;
+        if (map != null) {
+            body = header.slice();
+            body.limit(bodySize);
+        } else {
+            body = ByteBuffer.allocate(bodySize);
+            readFully(body, offset + HEADER_SIZE);
+            body.flip();
+        }
+        if (crc(body) != crc) return null;
+
+        byte type = body.get();
+        if (type != PUT && type != REMOVE) return null;
+        UUID id = new UUID(body.getLong(), body.getLong());
+        return new Record(type, id, body.slice().asReadOnlyBuffer(), offset, HEADER_SIZE + bodySize);
+    }
+
+    /**
+     * Forbids further appends and maps the segment into memory for reads,
+     * a segment too large for one mapping is read through the channel
+     */
+    void seal() throws IOException {
+        if (mapped != null || size > MAX_MAPPED_SIZE) return;
+        if (!channel.isOpen()) throw new ClosedChannelException();
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        mapped = map;
+    }
+
+    boolean isMapped() {
+        return mapped != null;
+    }
+
+    void truncate(long newSize) throws IOException {
+        if (mapped != null) throw new IllegalStateException(this + " is sealed");
+        channel.truncate(newSize);
+        size = newSize;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    long lastModified() throws IOException {
+        return Files.getLastModifiedTime(path).toMillis();
+    }
+
+    @Override
+    public void close() throws IOException {
+//  pages are unmapped when the last reader drops the buffer
+        mapped = null;
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public String toString() {
+        return "LogSegment{" + path.getFileName() + ", size=" + size + (mapped != null ? ", mapped" : "") + '}';
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of " + path);
+            position += read;
+        }
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.duplicate());
+        return (int) crc32.getValue();
+    }
+
+    static final class Record {
+        final byte type;
+        final UUID id;
+//  read-only view of the segment, valid after the segment is closed
+        final ByteBuffer payload;
+        final long offset;
+        final int size;
+
+        private Record(byte type, UUID id, ByteBuffer payload, long offset, int size) {
+            this.type = type;
+            this.id = id;
+            this.payload = payload;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
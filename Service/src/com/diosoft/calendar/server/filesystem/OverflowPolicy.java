@@ -0,0 +1,13 @@
+package com.diosoft.calendar.server.filesystem;
+
+/**
+ * What FileSystem.write and FileSystem.delete do when the persistence queue is full
+ */
+public enum OverflowPolicy {
+    /** the caller waits until an operation is applied */
+    BLOCK,
+    /** the caller gets IOException */
+    REJECT,
+    /** the event is written to a spill file by the caller and only its path is queued, deletes are queued over the limit */
+    SPILL
+}
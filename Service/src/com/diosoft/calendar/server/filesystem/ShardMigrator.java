@@ -0,0 +1,63 @@
+package com.diosoft.calendar.server.filesystem;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.UUID;
+
+/**
+ * Moves event files of a directory of FileSystemImpl into the layout with given levels of shards,
+ * e.g. a flat directory of xml files into two levels:
+ * java ShardMigrator Service/resources/events/ .xml 2
+ * Files which are already in place are not touched, shard directories left empty are deleted.
+ * The server must be stopped while files are moved.
+ */
+public class ShardMigrator {
+    private static final Logger logger = Logger.getLogger(ShardMigrator.class);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("Usage: ShardMigrator <directory of events> <file extension, e.g. .xml> <levels of shards>");
+            return;
+        }
+        int moved = migrate(Paths.get(args[0]), args[1], Integer.parseInt(args[2]));
+        logger.info("Moved " + moved + " event files in " + args[0]);
+    }
+
+    /**
+     * @return number of moved files
+     */
+    public static int migrate(final Path root, final String extension, final int shardLevels) throws IOException {
+        if (shardLevels < 0 || shardLevels > FileSystemImpl.MAX_SHARD_LEVELS) throw new IllegalArgumentException();
+        final int[] moved = new int[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                UUID id = FileSystemImpl.idOf(file, extension);
+                if (!attrs.isRegularFile() || id == null) return FileVisitResult.CONTINUE;
+                Path target = FileSystemImpl.pathOf(root, id, extension, shardLevels);
+                if (target.equals(file)) return FileVisitResult.CONTINUE;
+                Files.createDirectories(target.getParent());
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                moved[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) throw e;
+                if (!dir.equals(root) && isEmpty(dir)) Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return moved[0];
+    }
+
+    private static boolean isEmpty(Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            return !stream.iterator().hasNext();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+import com.diosoft.calendar.server.exception.DateTimeFormatException;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.*;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Streaming codec of the same xml as JAXBHelperImpl writes:
+ * event(id, title, description, startDate, endDate, attenders(attender(name, lastName, email)*)).
+ * Event and Person are built directly from the stream without adapters, unknown elements are skipped.
+ * Thread-safe, factories are created once.
+ */
+public class StAXHelperImpl implements JAXBHelper {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String INDENT = "    ";
+
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+    private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+    public StAXHelperImpl() {
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    @Override
+    public void write(Event event, BufferedWriter writer) throws IOException, JAXBException {
+        writer.write(HEADER);
+        try {
+            XMLStreamWriter xml = outputFactory.createXMLStreamWriter(writer);
+            xml.writeStartElement("event");
+            writeElement(xml, 1, "id", event.getId() == null ? null : event.getId().toString());
+            writeElement(xml, 1, "title", event.getTitle());
+            writeElement(xml, 1, "description", event.getDescription());
+            writeElement(xml, 1, "startDate", event.getStartDate() == null ? null : DATE_FORMAT.format(event.getStartDate()));
+            writeElement(xml, 1, "endDate", event.getEndDate() == null ? null : DATE_FORMAT.format(event.getEndDate()));
+            newLine(xml, 1);
+            xml.writeStartElement("attenders");
+            for (Person attender : event.getAttenders()) {
+                newLine(xml, 2);
+                xml.writeStartElement("attender");
+                writeElement(xml, 3, "name", attender.getName());
+                writeElement(xml, 3, "lastName", attender.getLastName());
+                writeElement(xml, 3, "email", attender.getEmail());
+                newLine(xml, 2);
+                xml.writeEndElement();
+            }
+            if (!event.getAttenders().isEmpty()) newLine(xml, 1);
+            xml.writeEndElement();
+            newLine(xml, 0);
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.flush();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Can't write event " + event.getId(), e);
+        }
+    }
+
+    @Override
+    public Event read(BufferedReader reader) throws JAXBException, DateTimeFormatException {
+        try {
+            XMLStreamReader xml = inputFactory.createXMLStreamReader(reader);
+            try {
+                xml.nextTag();
+                xml.require(XMLStreamConstants.START_ELEMENT, null, "event");
+                return readEvent(xml);
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new JAXBException("Can't read event", e);
+        }
+    }
+
+    private Event readEvent(XMLStreamReader xml) throws XMLStreamException, DateTimeFormatException {
+        Event.EventBuilder builder = new Event.EventBuilder();
+        Set<Person> attenders = new HashSet<Person>();
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = xml.getLocalName();
+            if ("id".equals(name)) {
+                builder.id(parseId(xml.getElementText()));
+            } else if ("title".equals(name)) {
+                builder.title(xml.getElementText());
+            } else if ("description".equals(name)) {
+                builder.description(xml.getElementText());
+            } else if ("startDate".equals(name)) {
+                builder.startDate(parseDate(xml.getElementText()));
+            } else if ("endDate".equals(name)) {
+                builder.endDate(parseDate(xml.getElementText()));
+            } else if ("attenders".equals(name)) {
+                while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if ("attender".equals(xml.getLocalName())) attenders.add(readAttender(xml));
+                    else skipElement(xml);
+                }
+            } else {
+                skipElement(xml);
+            }
+        }
+        return builder.attendersSet(attenders).build();
+    }
+
+    private Person readAttender(XMLStreamReader xml) throws XMLStreamException {
+        Person.PersonBuilder builder = new Person.PersonBuilder();
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = xml.getLocalName();
+            if ("name".equals(name)) builder.name(xml.getElementText());
+            else if ("lastName".equals(name)) builder.lastName(xml.getElementText());
+            else if ("email".equals(name)) builder.email(xml.getElementText());
+            else skipElement(xml);
+        }
+        return builder.build();
+    }
+
+    private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int type = xml.next();
+            if (type == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (type == XMLStreamConstants.END_ELEMENT) depth--;
+        }
+    }
+
+    private static UUID parseId(String text) throws XMLStreamException {
+        try {
+            return UUID.fromString(text.trim());
+        } catch (IllegalArgumentException e) {
+            throw new XMLStreamException("Wrong id: " + text);
+        }
+    }
+
+    private static LocalDateTime parseDate(String text) throws DateTimeFormatException {
+        try {
+            return LocalDateTime.parse(text.trim(), DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new DateTimeFormatException("Wrong format of date/time");
+        }
+    }
+
+//  the same layout as formatted output of JAXB, null values are omitted
+    private static void writeElement(XMLStreamWriter xml, int depth, String name, String value) throws XMLStreamException {
+        if (value == null) return;
+        newLine(xml, depth);
+        xml.writeStartElement(name);
+        xml.writeCharacters(value);
+        xml.writeEndElement();
+    }
+
+    private static void newLine(XMLStreamWriter xml, int depth) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder("\n");
+        for (int i = 0; i < depth; i++) sb.append(INDENT);
+        xml.writeCharacters(sb.toString());
+    }
+}
@@ -0,0 +1,39 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.exception.DateTimeFormatException;
+
+import javax.xml.bind.JAXBException;
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Xml files in UTF-8 written and read by JAXBHelperImpl or StAXHelperImpl
+ */
+public class XmlEventCodec implements EventCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final JAXBHelper jaxbHelper;
+
+    public XmlEventCodec(JAXBHelper jaxbHelper) {
+        this.jaxbHelper = jaxbHelper;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".xml";
+    }
+
+    @Override
+    public void encode(Event event, OutputStream out) throws IOException, JAXBException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+        jaxbHelper.write(event, writer);
+        writer.flush();
+    }
+
+    @Override
+    public Event decode(InputStream in) throws JAXBException, DateTimeFormatException {
+        return jaxbHelper.read(new BufferedReader(new InputStreamReader(in, UTF_8)));
+    }
+}
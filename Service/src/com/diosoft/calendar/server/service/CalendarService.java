@@ -10,6 +10,7 @@ import javax.xml.bind.JAXBException;
 import java.io.IOException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -146,6 +147,20 @@ public interface CalendarService extends Remote {
      */
     List<List<LocalDateTime>> searchFreeTimeForEvent(Event event, LocalDateTime startDate, LocalDateTime endDate) throws RemoteException, IllegalArgumentException, OrderOfArgumentsException;
 
+    /**
+     * Provides ability to search common free time of attenders in a given period, e.g. to find time for a meeting.
+     * Free time is counted in the same slots as searchFreeTime2, but no interval ends after endDate.
+     * @param attenders whose common free time is searched
+     * @param startDate
+     * @param endDate
+     * @param duration minimal duration of free interval
+     * @return list of free periods
+     * @throws RemoteException
+     * @throws IllegalArgumentException
+     * @throws OrderOfArgumentsException
+     */
+    List<List<LocalDateTime>> searchCommonFreeTime(Set<Person> attenders, LocalDateTime startDate, LocalDateTime endDate, Duration duration) throws RemoteException, IllegalArgumentException, OrderOfArgumentsException;
+
     /**
      * Check whether a person is free to participate in events in a given period
      * @param attender for search
@@ -165,4 +180,14 @@ public interface CalendarService extends Remote {
      */
     List<Event> searchEventByTitleStartWith(String prefix) throws RemoteException, IllegalArgumentException;
 
+    /**
+     * Search at most limit events by title that starts with the prefix, ordered by title. Suits autocomplete.
+     * Uses method of dataStoreImpl:searchEventByTitleStartWith(String prefix, int limit)
+     * @param prefix
+     * @param limit maximum number of returned events, must be positive
+     * @return List of events
+     * @throws IllegalArgumentException
+     */
+    List<Event> searchEventByTitleStartWith(String prefix, int limit) throws RemoteException, IllegalArgumentException;
+
 }
@@ -8,6 +8,8 @@ import com.diosoft.calendar.server.exception.OrderOfArgumentsException;
 import com.diosoft.calendar.server.exception.ValidationException;
 import com.diosoft.calendar.server.util.DateParser;
 import com.diosoft.calendar.server.util.EventValidator;
+import com.diosoft.calendar.server.util.FreeTimeCalculator;
+import com.diosoft.calendar.server.util.SlotOccupancy;
 import org.apache.log4j.Logger;
 
 import javax.xml.bind.JAXBException;
@@ -15,6 +17,7 @@ import java.io.IOException;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.*;
 
 public class CalendarServiceImpl implements CalendarService {
@@ -166,7 +169,8 @@ public class CalendarServiceImpl implements CalendarService {
 
         logger.info("Searching events by attender '" + attender.getName() + " " + attender.getLastName() + "' into period from " +
                 DateParser.dateToString(startDate) + " to " + DateParser.dateToString(endDate));
-        List<Event> eventListByAttender = searchByAttender(attender);
+//  data store returns also events which only touch the period, crossing rules of the service are applied on top
+        List<Event> eventListByAttender = dataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate);
         List<Event> eventListByAttenderIntoPeriod = new ArrayList<Event>();
         for (Event event : eventListByAttender) {
             if (isEventAndPeriodCrossing(event, startDate, endDate)) {
@@ -187,14 +191,9 @@ public class CalendarServiceImpl implements CalendarService {
         if (startDay.isAfter(endDay)) throw new OrderOfArgumentsException();
 
         logger.info("Searching events into period from '" + startDay + "' to" + endDay);
-        Set<Event> eventSetIntoPeriod = new HashSet<Event>();
-
-//  get all events from period without time (use getEventByDay method of DataStore which use index map)
-        while (startDay.isBefore(endDay) || startDay.equals(endDay)) {
-            List<Event> tempEventList = searchByDay(startDay);
-            eventSetIntoPeriod.addAll(tempEventList);
-            startDay = startDay.plusDays(1);
-        }
+//  one range query over date index instead of a lookup per day, events keep the order by start date
+        Set<Event> eventSetIntoPeriod = new LinkedHashSet<Event>(
+                dataStore.getEventIntoPeriod(startDay.atStartOfDay(), endDay.atTime(LocalTime.MAX)));
         logger.info("Found " + eventSetIntoPeriod.size() + " events");
         return eventSetIntoPeriod;
     }
@@ -205,29 +204,11 @@ public class CalendarServiceImpl implements CalendarService {
         if (startDate == null || endDate == null) throw new IllegalArgumentException();
         if (startDate.isAfter(endDate)) throw new OrderOfArgumentsException();
 
-        List<List<LocalDateTime>> freeTimeList = new LinkedList<List<LocalDateTime>>();
-        freeTimeList.add(Arrays.asList(startDate, endDate));
         Set<Event> eventSet = searchIntoPeriod(startDate.toLocalDate(), endDate.toLocalDate());
 
         logger.info("Searching free time into period from '" + startDate + "' to" + endDate);
-        for(Event event:eventSet) {
-            ListIterator<List<LocalDateTime>> it = freeTimeList.listIterator();
-            while (it.hasNext()) {
-                List<LocalDateTime> freeTimeInterval = it.next();
-                if (isEventIncludesFreeInterval(event, freeTimeInterval))
-                    it.remove();
-                else {
-                    if (isEventAndFreeIntervalCrossingInStartOfEvent(event, freeTimeInterval))
-                        freeTimeList.get(freeTimeList.indexOf(freeTimeInterval)).set(0, event.getEndDate());
-                    if (isEventAndFreeIntervalCrossingInEndOfEvent(event, freeTimeInterval))
-                        freeTimeList.get(freeTimeList.indexOf(freeTimeInterval)).set(1, event.getStartDate());
-                    if ( isFreeIntervalIncludesEvent(event, freeTimeInterval)) {
-                        it.add(Arrays.asList(event.getEndDate(), freeTimeInterval.get(1)));
-                        freeTimeList.get(freeTimeList.indexOf(freeTimeInterval)).set(1, event.getStartDate());
-                    }
-                }
-            }
-        }
+//  free intervals shorter than MINUTE_INTERVAL between events are not taken into account
+        List<List<LocalDateTime>> freeTimeList = FreeTimeCalculator.searchFreeIntervals(eventSet, startDate, endDate, MINUTE_INTERVAL);
         logger.info("Found "  + freeTimeList.size() + " free intervals");
         return freeTimeList;
     }
@@ -240,26 +221,16 @@ public class CalendarServiceImpl implements CalendarService {
 
         Set<Event> eventListIntoPeriod = searchIntoPeriod(startDate.toLocalDate(), endDate.toLocalDate());
 
-        List<List<LocalDateTime>> freeIntervalList = new ArrayList<List<LocalDateTime>>();
-        LocalDateTime tempStartDate = startDate;
         logger.info("Searching free time into period from " +
                 DateParser.dateToString(startDate) + " to " + DateParser.dateToString(endDate));
-        while (tempStartDate.isBefore(endDate)) {
-            LocalDateTime tempEndDate = tempStartDate.plusMinutes(MINUTE_INTERVAL);
-            boolean isFree = true;
-            for (Event event : eventListIntoPeriod) {
-                if (isEventAndPeriodCrossing(event, tempStartDate, tempEndDate)) {
-                    isFree = false;
-                    break;
-                }
-            }
-            if (isFree) {
-                freeIntervalList.add(Arrays.asList(tempStartDate,tempEndDate));
-            }
-            tempStartDate = tempStartDate.plusMinutes(MINUTE_INTERVAL);
+//  every event marks the MINUTE_INTERVAL slots it crosses, free time is runs of unmarked slots
+        SlotOccupancy slotOccupancy = new SlotOccupancy(startDate, endDate, MINUTE_INTERVAL);
+        for (Event event : eventListIntoPeriod) {
+            slotOccupancy.markBusy(event);
         }
-        logger.info("Found "  + mergeSolidInterval(freeIntervalList).size() + " free intervals");
-        return mergeSolidInterval(freeIntervalList);
+        List<List<LocalDateTime>> freeIntervalList = slotOccupancy.getFreeIntervals();
+        logger.info("Found "  + freeIntervalList.size() + " free intervals");
+        return freeIntervalList;
     }
 
     @Override
@@ -283,6 +254,29 @@ public class CalendarServiceImpl implements CalendarService {
         return freeIntervalListForEvent;
     }
 
+    @Override
+    public List<List<LocalDateTime>> searchCommonFreeTime(Set<Person> attenders, LocalDateTime startDate, LocalDateTime endDate,
+                                                          Duration duration) throws IllegalArgumentException, OrderOfArgumentsException {
+        if (attenders == null || startDate == null || endDate == null || duration == null || duration.isNegative())
+            throw new IllegalArgumentException();
+        if (startDate.isAfter(endDate)) throw new OrderOfArgumentsException();
+
+        logger.info("Searching common free time of " + attenders.size() + " attenders into period from " +
+                DateParser.dateToString(startDate) + " to " + DateParser.dateToString(endDate));
+//  busy slots of all attenders are marked in one bitmap, free slots of the bitmap are free for everybody
+        SlotOccupancy slotOccupancy = new SlotOccupancy(startDate, endDate, MINUTE_INTERVAL);
+        for (Person attender : attenders) {
+            if (attender == null) throw new IllegalArgumentException();
+            for (Event event : dataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate)) {
+                slotOccupancy.markBusy(event);
+            }
+            if (slotOccupancy.isFullyBusy()) break;
+        }
+        List<List<LocalDateTime>> freeIntervalList = slotOccupancy.getFreeIntervals(duration);
+        logger.info("Found "  + freeIntervalList.size() + " common free intervals");
+        return freeIntervalList;
+    }
+
     @Override
     public boolean isAttenderFree(Person attender, LocalDateTime startDate, LocalDateTime endDate)
             throws IllegalArgumentException, OrderOfArgumentsException {
@@ -316,26 +310,19 @@ public class CalendarServiceImpl implements CalendarService {
         return presentInEventList;
     }
 
-    private List<List<LocalDateTime>> mergeSolidInterval(List<List<LocalDateTime>> intervalList) {
-
-        List<List<LocalDateTime>> solidFreeIntervalList = new ArrayList<List<LocalDateTime>>();
-        LocalDateTime left  = intervalList.get(0).get(0);
-        LocalDateTime right = intervalList.get(0).get(1);
-
-        for (int i = 0; i < intervalList.size()-1; i++) {
-            List<LocalDateTime> leftInterval = intervalList.get(i);
-            List<LocalDateTime> rightInterval = intervalList.get(i+1);
-            if (leftInterval.get(1).equals(rightInterval.get(0))) {
-                right = rightInterval.get(1);
-            } else {
-                solidFreeIntervalList.add(Arrays.asList(left,right));
-                left = intervalList.get(i+1).get(0);
-                right = intervalList.get(i+1).get(1);
-            }
-        }
+    @Override
+    public List<Event> searchEventByTitleStartWith(String prefix, int limit) throws IllegalArgumentException {
+        if (prefix == null || limit < 1) throw new IllegalArgumentException();
+
+        logger.info("Searching at most " + limit + " events by title start with '" + prefix + "'");
+        List<Event> presentInEventList = dataStore.searchEventByTitleStartWith(prefix, limit);
+
+        if (presentInEventList.isEmpty())
+            logger.info("Events not found!");
+        else
+            logger.info("Found " + presentInEventList.size() + " events");
 
-        solidFreeIntervalList.add(Arrays.asList(left,intervalList.get(intervalList.size()-1).get(1)));
-        return solidFreeIntervalList;
+        return presentInEventList;
     }
 
     private boolean isEventAndPeriodCrossing(Event event, LocalDateTime startDate, LocalDateTime endDate)
@@ -378,65 +365,4 @@ public class CalendarServiceImpl implements CalendarService {
         else
             return false;
     }
-
-    private boolean isEventIncludesFreeInterval(Event event, List<LocalDateTime> interval) throws IllegalArgumentException {
-        if (event == null || interval == null) throw new IllegalArgumentException();
-
-        if (event.getStartDate().isBefore(interval.get(0).plusMinutes(MINUTE_INTERVAL))
-                && event.getEndDate().isAfter(interval.get(1).minusMinutes(MINUTE_INTERVAL)))
-            return true;
-        else
-            return false;
-    }
-
-    private boolean isEventAndFreeIntervalCrossingInStartOfEvent(Event event, List<LocalDateTime> interval) throws IllegalArgumentException {
-        if (event == null || interval == null) throw new IllegalArgumentException();
-        if (event.getStartDate().isBefore(interval.get(0).plusMinutes(MINUTE_INTERVAL))
-                && event.getEndDate().isAfter(interval.get(0))
-                && isEndOfEventBeforeEndOfIntervalMinusMinuteInterval(event, interval))
-            return true;
-        else
-            return false;
-    }
-
-    private boolean isEventAndFreeIntervalCrossingInEndOfEvent(Event event, List<LocalDateTime> interval) throws IllegalArgumentException {
-        if (event == null || interval == null) throw new IllegalArgumentException();
-        if (isStartOfEventAfterStartOfIntervalPlusMinuteInterval(event, interval)
-                && event.getStartDate().isBefore(interval.get(1))
-                && event.getEndDate().isAfter(interval.get(1).minusMinutes(MINUTE_INTERVAL)))
-            return true;
-        else
-            return false;
-    }
-
-    private boolean isFreeIntervalIncludesEvent(Event event, List<LocalDateTime> interval) throws IllegalArgumentException {
-        if (event == null || interval == null) throw new IllegalArgumentException();
-        if (isStartOfEventAfterStartOfIntervalPlusMinuteInterval(event, interval)
-                && isEndOfEventBeforeEndOfIntervalMinusMinuteInterval(event, interval))
-            return true;
-        else
-            return false;
-    }
-
-    private boolean isStartOfEventAfterStartOfIntervalPlusMinuteInterval(Event event, List<LocalDateTime> interval)
-            throws IllegalArgumentException {
-        if (event == null || interval == null) throw new IllegalArgumentException();
-        if (event.getStartDate().isAfter(interval.get(0).plusMinutes(MINUTE_INTERVAL))
-                || event.getStartDate().isEqual(interval.get(0).plusMinutes(MINUTE_INTERVAL)))
-            return true;
-        else
-            return false;
-    }
-
-    private boolean isEndOfEventBeforeEndOfIntervalMinusMinuteInterval(Event event, List<LocalDateTime> interval)
-            throws IllegalArgumentException {
-        if (event == null || interval == null) throw new IllegalArgumentException();
-        if (event.getEndDate().isBefore(interval.get(1).minusMinutes(MINUTE_INTERVAL))
-                || event.getEndDate().isEqual(interval.get(1).minusMinutes(MINUTE_INTERVAL)))
-            return true;
-        else
-            return false;
-    }
 }
-
-
@@ -0,0 +1,77 @@
+package com.diosoft.calendar.server.util;
+
+import com.diosoft.calendar.server.common.Event;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class FreeTimeCalculator {
+
+    /**
+     * Searches free intervals of the period [startDate, endDate] which are not covered by given events.
+     * Starts and ends of events are sorted and swept once, so it works in O(n log n).
+     * Free interval between event and period bound or between two events is returned only if
+     * it lasts at least minuteInterval minutes. Period without events is returned as it is.
+     * @param events busy time, events which have no common time with the period are ignored
+     * @param startDate of period
+     * @param endDate of period
+     * @param minuteInterval minimal duration of free interval in minutes
+     * @return list of free intervals [start, end] ordered by start
+     */
+    public static List<List<LocalDateTime>> searchFreeIntervals(Collection<Event> events, LocalDateTime startDate,
+                                                                LocalDateTime endDate, int minuteInterval)
+            throws IllegalArgumentException {
+        if (events == null || startDate == null || endDate == null || startDate.isAfter(endDate) || minuteInterval < 0)
+            throw new IllegalArgumentException();
+
+//  busy time clipped to the period
+        LocalDateTime[] starts = new LocalDateTime[events.size()];
+        LocalDateTime[] ends = new LocalDateTime[events.size()];
+        int count = 0;
+        for (Event event : events) {
+            if (!event.getStartDate().isBefore(endDate) || !event.getEndDate().isAfter(startDate)) continue;
+            starts[count] = event.getStartDate().isBefore(startDate) ? startDate : event.getStartDate();
+            ends[count] = event.getEndDate().isAfter(endDate) ? endDate : event.getEndDate();
+            count++;
+        }
+
+        List<List<LocalDateTime>> freeIntervalList = new ArrayList<List<LocalDateTime>>();
+        if (count == 0) {
+            freeIntervalList.add(Arrays.asList(startDate, endDate));
+            return freeIntervalList;
+        }
+
+//  sweep: the number of events in progress goes to zero at a start of free interval and leaves zero at its end,
+//  starts go before ends at the same moment so touching events make one busy interval
+        Arrays.sort(starts, 0, count);
+        Arrays.sort(ends, 0, count);
+        LocalDateTime freeStart = startDate;
+        int inProgress = 0;
+        int i = 0;
+        int j = 0;
+        while (i < count) {
+            if (!starts[i].isAfter(ends[j])) {
+                if (inProgress == 0) addFreeInterval(freeIntervalList, freeStart, starts[i], minuteInterval);
+                inProgress++;
+                i++;
+            } else {
+                inProgress--;
+                if (inProgress == 0) freeStart = ends[j];
+                j++;
+            }
+        }
+        addFreeInterval(freeIntervalList, ends[count - 1], endDate, minuteInterval);
+
+        return freeIntervalList;
+    }
+
+    private static void addFreeInterval(List<List<LocalDateTime>> freeIntervalList, LocalDateTime start,
+                                        LocalDateTime end, int minuteInterval) {
+        if (end.isAfter(start) && Duration.between(start, end).toMinutes() >= minuteInterval)
+            freeIntervalList.add(Arrays.asList(start, end));
+    }
+}
@@ -0,0 +1,122 @@
+package com.diosoft.calendar.server.util;
+
+import com.diosoft.calendar.server.common.Event;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Bitmap of busy slots of the period: slot k is [startDate + k * minuteInterval, startDate + (k + 1) * minuteInterval],
+ * the last slot may end after endDate. Event marks all slots it crosses in one operation,
+ * free intervals are runs of clear bits, intervals of a given duration are clipped to endDate.
+ */
+public class SlotOccupancy {
+
+    private final LocalDateTime startDate;
+    private final LocalDateTime endDate;
+    private final int minuteInterval;
+    private final long startSeconds;
+    private final long slotSeconds;
+    private final int slotCount;
+    private final BitSet busySlots;
+
+    public SlotOccupancy(LocalDateTime startDate, LocalDateTime endDate, int minuteInterval) throws IllegalArgumentException {
+        if (startDate == null || endDate == null || startDate.isAfter(endDate) || minuteInterval < 1)
+            throw new IllegalArgumentException();
+
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.minuteInterval = minuteInterval;
+        this.startSeconds = toSeconds(startDate);
+        this.slotSeconds = minuteInterval * 60L;
+        long slots = ceilDiv(toSeconds(endDate) - startSeconds, slotSeconds);
+        if (slots > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many slots in period");
+        this.slotCount = (int) slots;
+        this.busySlots = new BitSet(slotCount);
+    }
+
+    /**
+     * Marks slots which the event crosses: event and slot have common time, or event of zero duration
+     * is at the start or at the end of the slot.
+     */
+    public void markBusy(Event event) throws IllegalArgumentException {
+        if (event == null) throw new IllegalArgumentException();
+
+        long startOffset = toSeconds(event.getStartDate()) - startSeconds;
+        long endOffset = toSeconds(event.getEndDate()) - startSeconds;
+        long fromSlot = Math.floorDiv(startOffset, slotSeconds);
+        long toSlot = ceilDiv(endOffset, slotSeconds);
+        if (startOffset == endOffset && Math.floorMod(startOffset, slotSeconds) == 0) {
+//  zero duration event at the bound of two slots
+            fromSlot--;
+            toSlot++;
+        }
+        fromSlot = Math.max(fromSlot, 0);
+        toSlot = Math.min(toSlot, slotCount);
+        if (fromSlot < toSlot) busySlots.set((int) fromSlot, (int) toSlot);
+    }
+
+    /**
+     * @return true if every slot of the period is busy
+     */
+    public boolean isFullyBusy() {
+        return busySlots.nextClearBit(0) >= slotCount;
+    }
+
+    /**
+     * @return solid free intervals of whole slots ordered by start, the last one may end after endDate
+     */
+    public List<List<LocalDateTime>> getFreeIntervals() {
+        List<List<LocalDateTime>> freeIntervalList = new ArrayList<List<LocalDateTime>>();
+        int from = busySlots.nextClearBit(0);
+        while (from < slotCount) {
+            int to = endOfFreeRun(from);
+            freeIntervalList.add(Arrays.asList(startOfSlot(from), startOfSlot(to)));
+            from = busySlots.nextClearBit(to);
+        }
+        return freeIntervalList;
+    }
+
+    /**
+     * @param minDuration minimal length of interval
+     * @return solid free intervals of at least minDuration ordered by start, none of them ends after endDate
+     */
+    public List<List<LocalDateTime>> getFreeIntervals(Duration minDuration) throws IllegalArgumentException {
+        if (minDuration == null || minDuration.isNegative()) throw new IllegalArgumentException();
+
+        List<List<LocalDateTime>> freeIntervalList = new ArrayList<List<LocalDateTime>>();
+        int from = busySlots.nextClearBit(0);
+        while (from < slotCount) {
+            int to = endOfFreeRun(from);
+            LocalDateTime start = startOfSlot(from);
+            LocalDateTime end = startOfSlot(to);
+            if (end.isAfter(endDate)) end = endDate;
+            if (Duration.between(start, end).compareTo(minDuration) >= 0) freeIntervalList.add(Arrays.asList(start, end));
+            from = busySlots.nextClearBit(to);
+        }
+        return freeIntervalList;
+    }
+
+//  first busy slot after the free slot, or slotCount
+    private int endOfFreeRun(int from) {
+        int to = busySlots.nextSetBit(from);
+        return to < 0 || to > slotCount ? slotCount : to;
+    }
+
+    private LocalDateTime startOfSlot(int slot) {
+        return startDate.plusMinutes((long) slot * minuteInterval);
+    }
+
+    private static long toSeconds(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+}
@@ -0,0 +1,32 @@
+package com.diosoft.calendar.server.common;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.UUID;
+
+/**
+ * Events of one hour for tests of storage, starting at 2020-01-01 10:00 unless start is given
+ */
+public final class TestEvents {
+
+    public static final LocalDateTime START = LocalDateTime.of(2020, 1, 1, 10, 0);
+
+    private TestEvents() {
+    }
+
+    public static Event event(String title, Person... attenders) {
+        return event(UUID.randomUUID(), title, START, attenders);
+    }
+
+    public static Event event(UUID id, String title, Person... attenders) {
+        return event(id, title, START, attenders);
+    }
+
+    public static Event event(UUID id, String title, LocalDateTime start, Person... attenders) {
+        return new Event.EventBuilder()
+                .id(id).title(title).description("Description of " + title)
+                .startDate(start).endDate(start.plusHours(1))
+                .attendersSet(new HashSet<Person>(Arrays.asList(attenders))).build();
+    }
+}
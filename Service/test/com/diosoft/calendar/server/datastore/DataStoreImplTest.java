@@ -2,17 +2,30 @@ package com.diosoft.calendar.server.datastore;
 
 import com.diosoft.calendar.server.common.Event;
 import com.diosoft.calendar.server.common.Person;
+import com.diosoft.calendar.server.exception.DataStoreLoadingException;
+import com.diosoft.calendar.server.filesystem.AckPolicy;
 import com.diosoft.calendar.server.filesystem.FileSystem;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 public class DataStoreImplTest {
@@ -36,9 +49,11 @@ public class DataStoreImplTest {
     private DataStore dataStore;
 
     @Before
-    public void setUp() {
+    public void setUp() throws IOException, JAXBException {
         mockFileSystem = mock(FileSystem.class);
         dataStore = new DataStoreImpl(mockFileSystem);
+        when(mockFileSystem.write(any(Event.class))).thenReturn(CompletableFuture.<Void>completedFuture(null));
+        when(mockFileSystem.delete(any(UUID.class))).thenReturn(CompletableFuture.completedFuture(true));
     }
 
     @Test
@@ -54,6 +69,95 @@ public class DataStoreImplTest {
         verify(mockFileSystem).write(testEvent);
     }
 
+    @Test
+    public void testPublishWhenWriteFails() throws IllegalArgumentException, IOException, JAXBException {
+
+        attenders.add(testPerson);
+        CompletableFuture<Void> failedWrite = new CompletableFuture<Void>();
+        failedWrite.completeExceptionally(new IOException("Disk is full"));
+        when(mockFileSystem.write(testEvent)).thenReturn(failedWrite);
+
+        try {
+            dataStore.publish(testEvent);
+            fail("Failure of file system must be thrown");
+        } catch (IOException e) {
+            assertEquals("Disk is full", e.getMessage());
+        }
+//  not stored event is not kept, so it can be published again
+        assertNull(dataStore.getEventById(testEvent.getId()));
+        assertEquals(new ArrayList<Event>(), dataStore.getEventByTitle(testEvent.getTitle()));
+    }
+
+    @Test
+    public void testEditWhenWriteFails() throws IllegalArgumentException, IOException, JAXBException {
+
+        attenders.add(testPerson);
+        Event edited = new Event.EventBuilder(testEvent).title("Edited").build();
+        CompletableFuture<Void> failedWrite = new CompletableFuture<Void>();
+        failedWrite.completeExceptionally(new IOException("Disk is full"));
+        when(mockFileSystem.write(edited)).thenReturn(failedWrite);
+        dataStore.publish(testEvent);
+
+        try {
+            dataStore.publish(edited);
+            fail("Failure of file system must be thrown");
+        } catch (IOException e) {
+            assertEquals("Disk is full", e.getMessage());
+        }
+//  the stored version is back
+        assertEquals(testEvent, dataStore.getEventById(testEvent.getId()));
+        assertEquals(Arrays.asList(testEvent), dataStore.getEventByTitle(testEvent.getTitle()));
+        assertTrue(((DataStoreImpl) dataStore).isIndexConsistent());
+    }
+
+    @Test
+    public void testRemoveWhenDeleteFails() throws IllegalArgumentException, IOException, JAXBException {
+
+        attenders.add(testPerson);
+        CompletableFuture<Boolean> failedDelete = new CompletableFuture<Boolean>();
+        failedDelete.completeExceptionally(new IOException("Disk is read-only"));
+        when(mockFileSystem.delete(testEvent.getId())).thenReturn(failedDelete);
+        dataStore.publish(testEvent);
+
+        try {
+            dataStore.remove(testEvent.getId());
+            fail("Failure of file system must be thrown");
+        } catch (IOException e) {
+            assertEquals("Disk is read-only", e.getMessage());
+        }
+//  event which is still on disk is kept, so it can be removed again
+        assertEquals(testEvent, dataStore.getEventById(testEvent.getId()));
+        assertEquals(Arrays.asList(testEvent), dataStore.getEventByAttender(testPerson));
+        assertTrue(((DataStoreImpl) dataStore).isIndexConsistent());
+    }
+
+    @Test
+    public void testPublishDuplicateEvent() throws IllegalArgumentException, IOException, JAXBException {
+
+        attenders.add(testPerson);
+        Set<Person> sameAttenders = new HashSet<Person>(attenders);
+        final Event duplicateEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).attendersSet(sameAttenders).build();
+
+        dataStore.publish(testEvent);
+        dataStore.publish(duplicateEvent);
+
+        assertNull(dataStore.getEventById(duplicateEvent.getId()));
+        assertEquals(1, dataStore.getEventByTitle(testEvent.getTitle()).size());
+//  events are equal by content, the matcher of write can't tell them apart, so ids are checked
+        verify(mockFileSystem, times(1)).write(testEvent);
+        verify(mockFileSystem, never()).write(argThat(new ArgumentMatcher<Event>() {
+            @Override
+            public boolean matches(Object argument) {
+                return ((Event) argument).getId().equals(duplicateEvent.getId());
+            }
+        }));
+
+//  after removal of the original the same content can be published again
+        dataStore.remove(testEvent.getId());
+        dataStore.publish(duplicateEvent);
+        assertEquals(duplicateEvent, dataStore.getEventById(duplicateEvent.getId()));
+    }
+
     @Test(expected = IllegalArgumentException.class )
     public void testPublishWithNullArg() throws IllegalArgumentException, IOException, JAXBException {
 
@@ -168,6 +272,70 @@ public class DataStoreImplTest {
         assertEquals(expectedEvents,actualEvents);
     }
 
+    @Test
+    public void testGetEventByDayForLongEvent() throws IllegalArgumentException, IOException, JAXBException {
+
+        attenders.add(testPerson);
+        Event longEvent = new Event.EventBuilder()
+                .id(UUID.randomUUID()).title("LongEvent")
+                .description("Description of longEvent")
+                .startDate(LocalDateTime.of(2020, 1, 1, 10, 0))
+                .endDate(LocalDateTime.of(2023, 1, 1, 10, 0))
+                .attendersSet(attenders).build();
+        List<Event> expectedEvents = new ArrayList<Event>();
+        expectedEvents.add(longEvent);
+
+        dataStore.publish(longEvent);
+
+        assertEquals(expectedEvents, dataStore.getEventByDay(LocalDate.of(2020, 1, 1)));
+        assertEquals(expectedEvents, dataStore.getEventByDay(LocalDate.of(2021, 6, 15)));
+        assertEquals(expectedEvents, dataStore.getEventByDay(LocalDate.of(2023, 1, 1)));
+        assertEquals(new ArrayList<Event>(), dataStore.getEventByDay(LocalDate.of(2019, 12, 31)));
+        assertEquals(new ArrayList<Event>(), dataStore.getEventByDay(LocalDate.of(2023, 1, 2)));
+
+        dataStore.remove(longEvent.getId());
+        assertEquals(new ArrayList<Event>(), dataStore.getEventByDay(LocalDate.of(2021, 6, 15)));
+    }
+
+    @Test
+    public void testGetEventIntoPeriod() throws IllegalArgumentException, IOException, JAXBException {
+
+        attenders.add(testPerson);
+        Event firstEvent = new Event.EventBuilder()
+                .id(UUID.randomUUID()).title("First")
+                .description("Description of first event")
+                .startDate(LocalDateTime.of(2020, 1, 1, 10, 0))
+                .endDate(LocalDateTime.of(2020, 1, 5, 10, 0))
+                .attendersSet(attenders).build();
+        Event secondEvent = new Event.EventBuilder()
+                .id(UUID.randomUUID()).title("Second")
+                .description("Description of second event")
+                .startDate(LocalDateTime.of(2020, 1, 3, 10, 0))
+                .endDate(LocalDateTime.of(2020, 1, 3, 11, 0))
+                .attendersSet(attenders).build();
+        Event laterEvent = new Event.EventBuilder()
+                .id(UUID.randomUUID()).title("Later")
+                .description("Description of later event")
+                .startDate(LocalDateTime.of(2020, 2, 1, 10, 0))
+                .endDate(LocalDateTime.of(2020, 2, 1, 11, 0))
+                .attendersSet(attenders).build();
+        dataStore.publish(secondEvent);
+        dataStore.publish(laterEvent);
+        dataStore.publish(firstEvent);
+        List<Event> expectedEvents = new ArrayList<Event>();
+        expectedEvents.add(firstEvent);
+        expectedEvents.add(secondEvent);
+
+        assertEquals(expectedEvents, dataStore.getEventIntoPeriod(LocalDateTime.of(2020, 1, 2, 0, 0), LocalDateTime.of(2020, 1, 31, 0, 0)));
+        assertEquals(new ArrayList<Event>(), dataStore.getEventIntoPeriod(LocalDateTime.of(2020, 1, 6, 0, 0), LocalDateTime.of(2020, 1, 31, 0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetEventIntoPeriodWithWrongOrderOfDate() throws IllegalArgumentException {
+
+        dataStore.getEventIntoPeriod(LocalDateTime.of(2020, 1, 31, 0, 0), LocalDateTime.of(2020, 1, 1, 0, 0));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testGetEventByDayWithNullArg() throws IllegalArgumentException  {
 
@@ -199,6 +367,35 @@ public class DataStoreImplTest {
     }
 
 
+    @Test
+    public void testGetEventByAttenderIntoPeriod() throws IllegalArgumentException, IOException, JAXBException {
+
+        attenders.add(testPerson);
+        Event laterEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("LaterEvent")
+                .startDate(LocalDateTime.of(2020, 3, 1, 10, 0))
+                .endDate(LocalDateTime.of(2020, 3, 1, 12, 0)).build();
+        dataStore.publish(laterEvent);
+        dataStore.publish(testEvent);
+
+        List<Event> expectedEvents = new ArrayList<Event>();
+        expectedEvents.add(testEvent);
+        expectedEvents.add(laterEvent);
+//  all events ordered by start date
+        assertEquals(expectedEvents, dataStore.getEventByAttender(testPerson));
+
+        expectedEvents.remove(testEvent);
+        assertEquals(expectedEvents, dataStore.getEventByAttenderIntoPeriod(testPerson,
+                LocalDateTime.of(2020, 2, 1, 0, 0), LocalDateTime.of(2020, 3, 1, 11, 0)));
+        assertEquals(new ArrayList<Event>(), dataStore.getEventByAttenderIntoPeriod(testPerson,
+                LocalDateTime.of(2020, 2, 1, 0, 0), LocalDateTime.of(2020, 3, 1, 9, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetEventByAttenderIntoPeriodWithWrongOrderOfDate() throws IllegalArgumentException  {
+
+        dataStore.getEventByAttenderIntoPeriod(testPerson, LocalDateTime.of(2020, 2, 1, 0, 0), LocalDateTime.of(2020, 1, 1, 0, 0));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testGetEventByAttenderWithNullArg() throws IllegalArgumentException  {
 
@@ -239,4 +436,607 @@ public class DataStoreImplTest {
 
         assertEquals(expectedEventList, resultEventList);
     }
+
+    @Test
+    public void testSearchEventByTitleStartWithLimit() throws IOException, JAXBException {
+
+        attenders.add(testPerson);
+        String[] titles = {"Tea", "Team meeting", "Test", "Tesla", "Tennis", "Dinner"};
+        for (String title : titles) {
+            dataStore.publish(new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title(title).build());
+        }
+
+        List<Event> allEvents = dataStore.searchEventByTitleStartWith("Te");
+        assertEquals(5, allEvents.size());
+//  ordered by title
+        assertEquals("Tea", allEvents.get(0).getTitle());
+        assertEquals("Test", allEvents.get(4).getTitle());
+
+        List<Event> limitedEvents = dataStore.searchEventByTitleStartWith("Tes", 1);
+        assertEquals(1, limitedEvents.size());
+        assertEquals("Tesla", limitedEvents.get(0).getTitle());
+
+        assertEquals(new ArrayList<Event>(), dataStore.searchEventByTitleStartWith("Tez", 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearchEventByTitleStartWithIllegalLimit() throws IllegalArgumentException  {
+
+        dataStore.searchEventByTitleStartWith("Te", 0);
+    }
+
+    @Test
+    public void testInitFromSnapshotReadsOnlyChangedFiles() throws Exception {
+
+        attenders.add(testPerson);
+        Path snapshot = Files.createTempDirectory("snapshot").resolve("events.snapshot");
+        Event unchangedEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Unchanged").build();
+        Event deletedEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Deleted").build();
+        Event newEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("New").build();
+        stubReadAllEvents(mockFileSystem, Arrays.asList(unchangedEvent, deletedEvent));
+        DataStoreImpl firstStart = new DataStoreImpl(mockFileSystem, snapshot.toString(), 0);
+        firstStart.initDataStoreFromXMLResources();
+        firstStart.close();
+
+        FileSystem fileSystem = mock(FileSystem.class);
+        Map<UUID, Long> versions = new HashMap<UUID, Long>();
+        versions.put(unchangedEvent.getId(), 0L);
+        versions.put(newEvent.getId(), 0L);
+        when(fileSystem.readEventVersions()).thenReturn(versions);
+        when(fileSystem.readEvents(new HashSet<UUID>(Arrays.asList(newEvent.getId())))).thenReturn(Arrays.asList(newEvent));
+        DataStoreImpl secondStart = new DataStoreImpl(fileSystem, snapshot.toString(), 0);
+        secondStart.initDataStoreFromXMLResources();
+
+        verify(fileSystem, never()).readAllEvents(any(Consumer.class));
+        assertEquals(unchangedEvent, secondStart.getEventById(unchangedEvent.getId()));
+        assertEquals(newEvent, secondStart.getEventById(newEvent.getId()));
+        assertNull(secondStart.getEventById(deletedEvent.getId()));
+        assertTrue(secondStart.isIndexConsistent());
+    }
+
+    @Test
+    public void testSnapshotWithWrongLengthIsRejected() throws Exception {
+
+        Path snapshot = Files.createTempDirectory("snapshot").resolve("events.snapshot");
+        Event event = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Event").build();
+        DataStoreSnapshot.write(snapshot, 1000, Arrays.asList(event));
+        DataStoreSnapshot read = DataStoreSnapshot.read(snapshot);
+        assertEquals(1000, read.getCreatedMillis());
+        assertEquals(Arrays.asList(event), read.getEvents());
+
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(bytes, bytes.length + 1));
+        try {
+            DataStoreSnapshot.read(snapshot);
+            fail("Snapshot with bytes after the checksum must be rejected");
+        } catch (IOException e) {
+            assertEquals("Wrong length of snapshot: " + (bytes.length - 21), e.getMessage());
+        }
+        Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 1));
+        try {
+            DataStoreSnapshot.read(snapshot);
+            fail("Truncated snapshot must be rejected");
+        } catch (IOException e) {
+//  expected
+        }
+    }
+
+    @Test
+    public void testInitWithDamagedSnapshotReadsAllFiles() throws Exception {
+
+        Path snapshot = Files.createTempDirectory("snapshot").resolve("events.snapshot");
+        Event event = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Event").build();
+        DataStoreSnapshot.write(snapshot, System.currentTimeMillis(), Arrays.asList(event));
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(snapshot, bytes);
+        stubReadAllEvents(mockFileSystem, Arrays.asList(event));
+
+        DataStoreImpl restarted = new DataStoreImpl(mockFileSystem, snapshot.toString(), 0);
+        restarted.initDataStoreFromXMLResources();
+
+        verify(mockFileSystem).readAllEvents(any(Consumer.class));
+        assertEquals(event, restarted.getEventById(event.getId()));
+//  the damaged snapshot is replaced
+        assertEquals(Arrays.asList(event), DataStoreSnapshot.read(snapshot).getEvents());
+    }
+
+    @Test
+    public void testWarmUpServesQueriesWhileLoading() throws Exception {
+
+        attenders.add(testPerson);
+        LocalDateTime tomorrow = LocalDate.now().plusDays(1).atTime(10, 0);
+        final Event upcomingEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Upcoming")
+                .startDate(tomorrow).endDate(tomorrow.plusHours(1)).build();
+        final Event oldVersion = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Old version").build();
+        final CountDownLatch filesRead = new CountDownLatch(1);
+        doAnswer(new Answer<Long>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Long answer(InvocationOnMock invocation) throws InterruptedException {
+                filesRead.await();
+                Consumer<Event> consumer = (Consumer<Event>) invocation.getArguments()[0];
+                consumer.accept(upcomingEvent);
+                consumer.accept(oldVersion);
+                return 2L;
+            }
+        }).when(mockFileSystem).readAllEvents(any(Consumer.class));
+        DataStoreImpl warmingUp = new DataStoreImpl(mockFileSystem, null, 0, true, 0);
+
+        warmingUp.initDataStoreFromXMLResources();
+        assertTrue(!warmingUp.isLoaded());
+        try {
+            warmingUp.getEventIntoPeriod(tomorrow, tomorrow.plusDays(1));
+            fail("Query of not loaded events must be reported");
+        } catch (DataStoreLoadingException e) {
+//  expected
+        }
+//  event published during warm-up is not replaced by its older version from file
+        Event newVersion = new Event.EventBuilder(oldVersion).title("New version").build();
+        warmingUp.publish(newVersion);
+        filesRead.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!warmingUp.isLoaded()) {
+            assertTrue("Warm-up must finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        assertEquals(Arrays.asList(upcomingEvent), warmingUp.getEventIntoPeriod(tomorrow, tomorrow.plusDays(1)));
+        assertEquals(newVersion, warmingUp.getEventById(oldVersion.getId()));
+        assertTrue(warmingUp.isIndexConsistent());
+    }
+
+    @Test
+    public void testFailedPublishDuringWarmUpKeepsVersionOnDisk() throws Exception {
+
+        attenders.add(testPerson);
+        final Event oldVersion = new Event.EventBuilder(testEvent).title("Old version").build();
+        final CountDownLatch published = new CountDownLatch(1);
+        doAnswer(new Answer<Long>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Long answer(InvocationOnMock invocation) throws InterruptedException {
+                published.await();
+                ((Consumer<Event>) invocation.getArguments()[0]).accept(oldVersion);
+                return 1L;
+            }
+        }).when(mockFileSystem).readAllEvents(any(Consumer.class));
+        when(mockFileSystem.read(oldVersion.getId())).thenReturn(oldVersion);
+        final Event newVersion = new Event.EventBuilder(oldVersion).title("New version").build();
+        final CompletableFuture<Void> write = new CompletableFuture<Void>();
+        final CountDownLatch writing = new CountDownLatch(1);
+        doAnswer(new Answer<CompletableFuture<Void>>() {
+            @Override
+            public CompletableFuture<Void> answer(InvocationOnMock invocation) {
+                writing.countDown();
+                return write;
+            }
+        }).when(mockFileSystem).write(newVersion);
+        final DataStoreImpl warmingUp = new DataStoreImpl(mockFileSystem, null, 0, true, 0);
+        warmingUp.initDataStoreFromXMLResources();
+
+//  the loader skips the version on disk while the publish waits for the disk
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<Void> publish = executorService.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                warmingUp.publish(newVersion);
+                return null;
+            }
+        });
+        writing.await();
+        published.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!warmingUp.isLoaded()) {
+            assertTrue("Warm-up must finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        write.completeExceptionally(new IOException("Disk is full"));
+        try {
+            publish.get();
+            fail("Failure of file system must be thrown");
+        } catch (ExecutionException e) {
+            assertEquals("Disk is full", e.getCause().getMessage());
+        }
+        executorService.shutdown();
+
+        assertEquals(oldVersion, warmingUp.getEventById(oldVersion.getId()));
+        assertTrue(warmingUp.isIndexConsistent());
+    }
+
+    @Test
+    public void testQueryWaitsForWarmUp() throws Exception {
+
+        attenders.add(testPerson);
+        final Event event = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("History").build();
+        doAnswer(new Answer<Long>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Long answer(InvocationOnMock invocation) throws InterruptedException {
+                Thread.sleep(100);
+                ((Consumer<Event>) invocation.getArguments()[0]).accept(event);
+                return 1L;
+            }
+        }).when(mockFileSystem).readAllEvents(any(Consumer.class));
+        DataStoreImpl warmingUp = new DataStoreImpl(mockFileSystem, null, 0, true, 10000);
+
+        warmingUp.initDataStoreFromXMLResources();
+
+        assertEquals(Arrays.asList(event), warmingUp.getEventByTitle("History"));
+    }
+
+    @Test
+    public void testConcurrentPublishAndRemoveKeepIndexesConsistent() throws Exception {
+
+        final DataStoreImpl concurrentDataStore = new DataStoreImpl(new NoOpFileSystem());
+        final int writers = 8;
+        final int eventsPerWriter = 2000;
+        final String[] titles = {"Meeting", "Meet", "Party", "Review"};
+        final Person[] persons = new Person[5];
+        for (int i = 0; i < persons.length; i++) {
+            persons[i] = new Person.PersonBuilder().name("Name" + i).lastName("LastName" + i).email(i + "@ukr.net").build();
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(writers + 2);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Set<Event> expectedEvents = ConcurrentHashMap.newKeySet();
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            futures.add(executorService.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    Random random = new Random(writer);
+                    start.await();
+                    for (int i = 0; i < eventsPerWriter; i++) {
+                        Set<Person> eventAttenders = new HashSet<Person>();
+                        eventAttenders.add(persons[random.nextInt(persons.length)]);
+                        eventAttenders.add(persons[random.nextInt(persons.length)]);
+                        LocalDateTime startDate = LocalDateTime.of(2020, 1, 1, 0, 0).plusHours(random.nextInt(24 * 30));
+                        Event event = new Event.EventBuilder()
+                                .id(UUID.randomUUID()).title(titles[random.nextInt(titles.length)])
+                                .description("writer " + writer + " event " + i)
+                                .startDate(startDate)
+                                .endDate(startDate.plusHours(random.nextInt(72)))
+                                .attendersSet(eventAttenders).build();
+                        concurrentDataStore.publish(event);
+                        if (random.nextBoolean()) {
+                            assertEquals(event, concurrentDataStore.remove(event.getId()));
+                        } else {
+                            expectedEvents.add(event);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+//  readers run concurrently with writers and must never fail
+        for (int r = 0; r < 2; r++) {
+            futures.add(executorService.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < 2000; i++) {
+                        for (Event event : concurrentDataStore.searchEventByTitleStartWith("Meet"))
+                            assertTrue(event.getTitle().startsWith("Meet"));
+                        for (Event event : concurrentDataStore.getEventByAttender(persons[i % persons.length]))
+                            assertTrue(event.getAttenders().contains(persons[i % persons.length]));
+                        concurrentDataStore.getEventByDay(LocalDate.of(2020, 1, 1).plusDays(i % 30));
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) future.get();
+        executorService.shutdown();
+
+        assertTrue(concurrentDataStore.isIndexConsistent());
+        for (Event event : expectedEvents) {
+            assertEquals(event, concurrentDataStore.getEventById(event.getId()));
+        }
+        int total = 0;
+        for (String title : new HashSet<String>(Arrays.asList(titles))) {
+            total += concurrentDataStore.getEventByTitle(title).size();
+        }
+        assertEquals(expectedEvents.size(), total);
+    }
+
+    @Test
+    public void testIndexOnlyModeReadsEvictedEventsFromFileSystem() throws Exception {
+
+        attenders.add(testPerson);
+        MapFileSystem fileSystem = new MapFileSystem();
+        DataStoreImpl indexOnly = new DataStoreImpl(fileSystem, null, 0, false, 0, EventStorage.INDEX_ONLY, 2);
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 10; i++) {
+            Event event = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Event " + i)
+                    .startDate(testEvent.getStartDate().plusDays(i)).endDate(testEvent.getEndDate().plusDays(i)).build();
+            indexOnly.publish(event);
+            events.add(event);
+        }
+//  only the last two bodies are cached
+        assertEquals(0, fileSystem.reads.get());
+
+        assertEquals(events.get(0), indexOnly.getEventById(events.get(0).getId()));
+        assertEquals(1, fileSystem.reads.get());
+        assertEquals(events.get(0), indexOnly.getEventById(events.get(0).getId()));
+        assertEquals(1, fileSystem.reads.get());
+        assertEquals(events.subList(3, 5), indexOnly.getEventIntoPeriod(
+                events.get(3).getStartDate().plusMinutes(1), events.get(4).getStartDate()));
+        assertEquals(10, indexOnly.searchEventByTitleStartWith("Event").size());
+        assertEquals(10, indexOnly.getEventByAttender(testPerson).size());
+//  duplicate is detected by digest without reading the event
+        int reads = fileSystem.reads.get();
+        indexOnly.publish(new Event.EventBuilder(events.get(5)).id(UUID.randomUUID()).build());
+        assertEquals(reads, fileSystem.reads.get());
+        assertEquals(1, indexOnly.getEventByTitle("Event 5").size());
+        assertTrue(indexOnly.isIndexConsistent());
+    }
+
+    @Test
+    public void testIndexOnlyModeReadsEvictedEventWithSeconds() throws Exception {
+
+        attenders.add(testPerson);
+        MapFileSystem fileSystem = new MapFileSystem();
+        DataStoreImpl indexOnly = new DataStoreImpl(fileSystem, null, 0, false, 0, EventStorage.INDEX_ONLY, 1);
+        Event withSeconds = new Event.EventBuilder(testEvent).startDate(LocalDateTime.of(2020, 1, 1, 12, 0, 30)).build();
+        indexOnly.publish(withSeconds);
+        indexOnly.publish(new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Evicting").build());
+
+        Event read = indexOnly.getEventById(testEvent.getId());
+        assertEquals(1, fileSystem.reads.get());
+        assertEquals(LocalDateTime.of(2020, 1, 1, 12, 0), read.getStartDate());
+        assertEquals(EventDigest.of(withSeconds), EventDigest.of(read));
+    }
+
+    @Test
+    public void testIndexOnlyModeReplacesAndRemovesEvictedEvents() throws Exception {
+
+        attenders.add(testPerson);
+        MapFileSystem fileSystem = new MapFileSystem();
+        DataStoreImpl indexOnly = new DataStoreImpl(fileSystem, null, 0, false, 0, EventStorage.INDEX_ONLY, 0);
+        Event first = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("First").build();
+        Event second = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Second").build();
+        indexOnly.publish(first);
+        indexOnly.publish(second);
+
+        Event edited = new Event.EventBuilder(first).title("Edited").build();
+        indexOnly.publish(edited);
+        assertEquals(second, indexOnly.remove(second.getId()));
+
+        assertEquals(Arrays.asList(edited), indexOnly.getEventByAttender(testPerson));
+        assertEquals(0, indexOnly.getEventByTitle("First").size());
+        assertNull(indexOnly.getEventById(second.getId()));
+        assertTrue(indexOnly.isIndexConsistent());
+        assertTrue(fileSystem.reads.get() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIndexOnlyModeWithSnapshot() {
+        new DataStoreImpl(mockFileSystem, "events.snapshot", 0, false, 0, EventStorage.INDEX_ONLY, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIndexOnlyModeWithoutAcknowledgement() {
+        when(mockFileSystem.getAckPolicy()).thenReturn(AckPolicy.NONE);
+        new DataStoreImpl(mockFileSystem, null, 0, false, 0, EventStorage.INDEX_ONLY, 100);
+    }
+
+    @Test
+    public void testOffHeapMode() throws Exception {
+
+        attenders.add(testPerson);
+        DataStoreImpl offHeap = new DataStoreImpl(mockFileSystem, null, 0, false, 0, EventStorage.OFF_HEAP, 0);
+        Event first = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("First").build();
+        Event second = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Second").build();
+        offHeap.publish(first);
+        offHeap.publish(second);
+        offHeap.publish(new Event.EventBuilder(first).id(UUID.randomUUID()).build());
+
+        Event edited = new Event.EventBuilder(first).title("Edited").build();
+        offHeap.publish(edited);
+        assertEquals(second, offHeap.remove(second.getId()));
+
+        assertEquals(edited, offHeap.getEventById(first.getId()));
+        assertNull(offHeap.getEventById(second.getId()));
+        assertEquals(Arrays.asList(edited), offHeap.getEventByAttender(testPerson));
+        assertEquals(Arrays.asList(edited), offHeap.getEventByDay(LocalDate.of(2020, 1, 1)));
+        assertEquals(0, offHeap.getEventByTitle("First").size());
+        assertTrue(offHeap.isIndexConsistent());
+    }
+
+    @Test
+    public void testDatesArePublishedToTheMinute() throws Exception {
+
+        attenders.add(testPerson);
+        Event withSeconds = new Event.EventBuilder(testEvent)
+                .startDate(LocalDateTime.of(2020, 1, 1, 12, 0, 30)).endDate(LocalDateTime.of(2020, 1, 1, 13, 0, 0, 5)).build();
+        Event published = new Event.EventBuilder(testEvent)
+                .startDate(LocalDateTime.of(2020, 1, 1, 12, 0)).endDate(LocalDateTime.of(2020, 1, 1, 13, 0)).build();
+        CompletableFuture<Void> failedWrite = new CompletableFuture<Void>();
+        failedWrite.completeExceptionally(new IOException("Disk is full"));
+        for (EventStorage storage : EnumSet.of(EventStorage.HEAP, EventStorage.OFF_HEAP)) {
+            DataStoreImpl store = new DataStoreImpl(mockFileSystem, null, 0, false, 0, storage, 0, 30, 3600);
+            store.publish(withSeconds);
+
+            assertEquals(published, store.getEventById(testEvent.getId()));
+            assertEquals(Arrays.asList(published), store.getEventIntoPeriod(published.getStartDate(), published.getStartDate()));
+            assertEquals(1, store.moveToColdTier());
+            assertEquals(published, store.getEventById(testEvent.getId()));
+            assertEquals(Arrays.asList(published), store.getEventByAttender(testPerson));
+//  the stored version of a failed publish is found and rolled back
+            Event edited = new Event.EventBuilder(withSeconds).title("Edited").build();
+            when(mockFileSystem.write(new Event.EventBuilder(published).title("Edited").build())).thenReturn(failedWrite);
+            try {
+                store.publish(edited);
+                fail("Failure of file system must be thrown");
+            } catch (IOException e) {
+                assertEquals("Disk is full", e.getMessage());
+            }
+            assertEquals(published, store.getEventById(testEvent.getId()));
+            assertTrue(store.isIndexConsistent());
+        }
+    }
+
+    @Test
+    public void testColdTierIsTransparentForQueries() throws Exception {
+
+        attenders.add(testPerson);
+        DataStoreImpl tiered = new DataStoreImpl(mockFileSystem, null, 0, false, 0, EventStorage.HEAP, 0, 30, 3600);
+        LocalDateTime tomorrow = LocalDate.now().plusDays(1).atTime(10, 0);
+        Event upcomingEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Meeting upcoming")
+                .startDate(tomorrow).endDate(tomorrow.plusHours(1)).build();
+        Event pastEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Meeting past").build();
+        Event olderEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Meeting older")
+                .startDate(testEvent.getStartDate().minusDays(1)).endDate(testEvent.getEndDate().minusDays(1)).build();
+        tiered.publish(upcomingEvent);
+        tiered.publish(pastEvent);
+        tiered.publish(olderEvent);
+
+        assertEquals(2, tiered.moveToColdTier());
+        assertEquals(0, tiered.moveToColdTier());
+
+        assertEquals(pastEvent, tiered.getEventById(pastEvent.getId()));
+        assertEquals(Arrays.asList(pastEvent), tiered.getEventByTitle("Meeting past"));
+        assertEquals(Arrays.asList(olderEvent, pastEvent), tiered.getEventIntoPeriod(LocalDateTime.MIN, LocalDateTime.MAX).subList(0, 2));
+        assertEquals(Arrays.asList(olderEvent, pastEvent, upcomingEvent), tiered.getEventByAttender(testPerson));
+        assertEquals(Arrays.asList(upcomingEvent), tiered.getEventByAttenderIntoPeriod(testPerson, tomorrow, tomorrow));
+        assertEquals(Arrays.asList(olderEvent, pastEvent), tiered.searchEventByTitleStartWith("Meeting", 2));
+        assertEquals(Arrays.asList(pastEvent), tiered.getEventByDay(LocalDate.of(2020, 1, 2)));
+//  duplicate of an event of the cold tier is detected
+        tiered.publish(new Event.EventBuilder(pastEvent).id(UUID.randomUUID()).build());
+        assertEquals(1, tiered.getEventByTitle("Meeting past").size());
+        assertTrue(tiered.isIndexConsistent());
+    }
+
+    @Test
+    public void testRemoveAndEditOfColdEvents() throws Exception {
+
+        attenders.add(testPerson);
+        DataStoreImpl tiered = new DataStoreImpl(mockFileSystem, null, 0, false, 0, EventStorage.HEAP, 0, 30, 3600);
+        Event removedEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Removed").build();
+        Event editedEvent = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Original").build();
+        tiered.publish(removedEvent);
+        tiered.publish(editedEvent);
+        tiered.moveToColdTier();
+
+        assertEquals(removedEvent, tiered.remove(removedEvent.getId()));
+        Event newVersion = new Event.EventBuilder(editedEvent).title("Edited").build();
+        tiered.publish(newVersion);
+
+        assertNull(tiered.getEventById(removedEvent.getId()));
+        assertNull(tiered.remove(removedEvent.getId()));
+        verify(mockFileSystem, times(1)).delete(removedEvent.getId());
+        assertEquals(newVersion, tiered.getEventById(editedEvent.getId()));
+        assertEquals(0, tiered.getEventByTitle("Original").size());
+        assertEquals(Arrays.asList(newVersion), tiered.getEventByAttender(testPerson));
+//  the new version moves to the cold tier too
+        assertEquals(1, tiered.moveToColdTier());
+        assertEquals(Arrays.asList(newVersion), tiered.getEventByDay(LocalDate.of(2020, 1, 1)));
+        assertNull(tiered.getEventById(removedEvent.getId()));
+    }
+
+    @Test
+    public void testColdEventIsKeptWhenWriteOrDeleteFails() throws Exception {
+
+        attenders.add(testPerson);
+        DataStoreImpl tiered = new DataStoreImpl(mockFileSystem, null, 0, false, 0, EventStorage.HEAP, 0, 30, 3600);
+        tiered.publish(testEvent);
+        assertEquals(1, tiered.moveToColdTier());
+        Event edited = new Event.EventBuilder(testEvent).title("Edited").build();
+        CompletableFuture<Void> failedWrite = new CompletableFuture<Void>();
+        failedWrite.completeExceptionally(new IOException("Disk is full"));
+        when(mockFileSystem.write(edited)).thenReturn(failedWrite);
+        CompletableFuture<Boolean> failedDelete = new CompletableFuture<Boolean>();
+        failedDelete.completeExceptionally(new IOException("Disk is read-only"));
+        when(mockFileSystem.delete(testEvent.getId())).thenReturn(failedDelete);
+
+        try {
+            tiered.publish(edited);
+            fail("Failure of file system must be thrown");
+        } catch (IOException e) {
+            assertEquals("Disk is full", e.getMessage());
+        }
+        assertEquals(testEvent, tiered.getEventById(testEvent.getId()));
+        try {
+            tiered.remove(testEvent.getId());
+            fail("Failure of file system must be thrown");
+        } catch (IOException e) {
+            assertEquals("Disk is read-only", e.getMessage());
+        }
+//  the cold version stays where it was
+        assertEquals(testEvent, tiered.getEventById(testEvent.getId()));
+        assertEquals(Arrays.asList(testEvent), tiered.getEventByAttender(testPerson));
+        assertEquals(0, tiered.moveToColdTier());
+        assertTrue(tiered.isIndexConsistent());
+    }
+
+    @Test
+    public void testColdSegmentsAreCompacted() throws Exception {
+
+        attenders.add(testPerson);
+        DataStoreImpl tiered = new DataStoreImpl(mockFileSystem, null, 0, false, 0, EventStorage.HEAP, 0, 30, 3600);
+        List<Event> events = new ArrayList<Event>();
+        Event edited = null;
+        for (int i = 0; i < 12; i++) {
+            Event event = new Event.EventBuilder(testEvent).id(UUID.randomUUID()).title("Past " + i)
+                    .startDate(testEvent.getStartDate().plusDays(i)).endDate(testEvent.getEndDate().plusDays(i)).build();
+            tiered.publish(event);
+            events.add(event);
+//  an event edited and an event removed before the segments are compacted, their records are dead then
+            if (i == 4) {
+                edited = new Event.EventBuilder(events.get(0)).title("Edited").build();
+                tiered.publish(edited);
+                events.set(0, edited);
+                assertEquals(events.get(1), tiered.remove(events.get(1).getId()));
+                assertEquals(2, tiered.moveToColdTier());
+            } else {
+                assertEquals(1, tiered.moveToColdTier());
+            }
+        }
+        UUID removedId = events.remove(1).getId();
+
+        assertEquals(edited, tiered.getEventById(edited.getId()));
+        assertEquals(0, tiered.getEventByTitle("Past 0").size());
+        assertNull(tiered.getEventById(removedId));
+        assertNull(tiered.remove(removedId));
+        assertEquals(events, tiered.getEventByAttender(testPerson));
+        assertEquals(events, tiered.getEventIntoPeriod(LocalDateTime.MIN, LocalDateTime.MAX));
+        assertTrue(tiered.isIndexConsistent());
+    }
+
+//  file system which passes the events to the consumer of readAllEvents
+    @SuppressWarnings("unchecked")
+    private static void stubReadAllEvents(FileSystem fileSystem, final List<Event> events) throws Exception {
+        doAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                Consumer<Event> consumer = (Consumer<Event>) invocation.getArguments()[0];
+                for (Event event : events) consumer.accept(event);
+                return (long) events.size();
+            }
+        }).when(fileSystem).readAllEvents(any(Consumer.class));
+    }
+
+//  keeps written events in memory and counts reads by id
+    private static class MapFileSystem extends NoOpFileSystem {
+        final ConcurrentMap<UUID, Event> events = new ConcurrentHashMap<UUID, Event>();
+        final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<Void> write(Event event) {
+            events.put(event.getId(), event);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public Event read(UUID id) {
+            reads.incrementAndGet();
+            return events.get(id);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> delete(UUID id) {
+            return CompletableFuture.completedFuture(events.remove(id) != null);
+        }
+    }
 }
@@ -0,0 +1,115 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Compares HEAP and OFF_HEAP storage of DataStoreImpl: heap used by the loaded events, direct memory,
+ * and collections of the garbage collector while events are read and changed. The file system does nothing,
+ * so only the data store is measured. Run with the same -Xmx for both modes to compare pauses.
+ * Run: java EventStoreBenchmark [HEAP|OFF_HEAP|ALL] [events] [seconds of workload]
+ */
+public class EventStoreBenchmark {
+
+    private static final int ATTENDERS = 1000;
+    private static final int DAYS = 365;
+
+    public static void main(String[] args) throws Exception {
+        String storage = args.length > 0 ? args[0] : "ALL";
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        for (EventStorage eventStorage : Arrays.asList(EventStorage.HEAP, EventStorage.OFF_HEAP)) {
+            if (storage.equals("ALL") || storage.equals(eventStorage.name())) run(eventStorage, events, seconds);
+        }
+    }
+
+    private static void run(EventStorage eventStorage, int count, int seconds) throws Exception {
+        Random random = new Random(42);
+        List<Person> persons = new ArrayList<Person>(ATTENDERS);
+        for (int i = 0; i < ATTENDERS; i++) {
+            persons.add(new Person.PersonBuilder().name("Name " + i).lastName("Last name " + i)
+                    .email("person" + i + "@example.com").build());
+        }
+
+        long heapBefore = usedHeap();
+        DataStoreImpl dataStore = new DataStoreImpl(new NoOpFileSystem(), null, 0, false, 0, eventStorage, 0);
+        UUID[] ids = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = UUID.randomUUID();
+            dataStore.publish(event(ids[i], i, random, persons));
+        }
+        long heap = usedHeap() - heapBefore;
+
+        long collections = collectionCount();
+        long collectionMillis = collectionMillis();
+        long reads = 0;
+        long writes = 0;
+        long end = System.nanoTime() + seconds * 1000000000L;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 1000; i++) {
+                int n = random.nextInt(count);
+                if (i % 10 == 0) {
+                    dataStore.publish(event(ids[n], n, random, persons));
+                    writes++;
+                } else if (i % 10 == 1) {
+                    dataStore.getEventByDay(LocalDate.of(2020, 1, 1).plusDays(random.nextInt(DAYS)));
+                    reads++;
+                } else {
+                    dataStore.getEventById(ids[n]);
+                    reads++;
+                }
+            }
+        }
+        collections = collectionCount() - collections;
+        collectionMillis = collectionMillis() - collectionMillis;
+
+        System.out.println(eventStorage + " (" + count + " events, " + seconds + " s of workload):");
+        System.out.println("  heap:          " + heap / (1024 * 1024) + " MB, " + heap / count + " bytes per event");
+        System.out.println("  direct memory: " + directMemory() / (1024 * 1024) + " MB");
+        System.out.println("  throughput:    " + reads / seconds + " reads/s, " + writes / seconds + " writes/s");
+        System.out.println("  collections:   " + collections + " in " + collectionMillis + " ms");
+        dataStore.close();
+    }
+
+    private static Event event(UUID id, int number, Random random, List<Person> persons) {
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 8, 0).plusDays(random.nextInt(DAYS)).plusMinutes(15 * random.nextInt(40));
+        Set<Person> attenders = new HashSet<Person>();
+        for (int i = 0; i < 3; i++) attenders.add(persons.get(random.nextInt(persons.size())));
+        return new Event.EventBuilder()
+                .id(id).title("Event " + number).description("Description of event " + number + " version " + random.nextInt())
+                .startDate(start).endDate(start.plusMinutes(30 + 15 * random.nextInt(8)))
+                .attendersSet(attenders).build();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long directMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) count += collector.getCollectionCount();
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) millis += collector.getCollectionTime();
+        return millis;
+    }
+}
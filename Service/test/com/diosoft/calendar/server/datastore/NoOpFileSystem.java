@@ -0,0 +1,61 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.filesystem.AckPolicy;
+import com.diosoft.calendar.server.filesystem.FileSystem;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * FileSystem which stores nothing, for tests and benchmarks of the data store alone
+ */
+class NoOpFileSystem implements FileSystem {
+
+    @Override
+    public CompletableFuture<Void> write(Event event) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Event read(UUID id) {
+        return null;
+    }
+
+    @Override
+    public Event read(Path pathToFile) {
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(UUID id) {
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public List<Event> readAllEventsFromXMLResources() {
+        return new ArrayList<Event>();
+    }
+
+    @Override
+    public long readAllEvents(Consumer<Event> consumer) {
+        return 0;
+    }
+
+    @Override
+    public Map<UUID, Long> readEventVersions() {
+        return new HashMap<UUID, Long>();
+    }
+
+    @Override
+    public List<Event> readEvents(Collection<UUID> ids) {
+        return new ArrayList<Event>();
+    }
+
+    @Override
+    public AckPolicy getAckPolicy() {
+        return AckPolicy.WRITE;
+    }
+}
@@ -0,0 +1,68 @@
+package com.diosoft.calendar.server.datastore;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static com.diosoft.calendar.server.common.TestEvents.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapEventStoreTest {
+
+    private static final Person DENIS = new Person.PersonBuilder().name("Denis").lastName("Milyaev").email("denis@ukr.net").build();
+
+    @Test
+    public void testDeadRecordsAreCompacted() {
+
+        OffHeapEventStore store = new OffHeapEventStore(4096);
+        Map<UUID, Event> expectedEvents = new HashMap<UUID, Event>();
+        List<UUID> ids = new ArrayList<UUID>();
+        for (int i = 0; i < 20; i++) ids.add(UUID.randomUUID());
+
+//  every event is rewritten many times, most records become dead
+        for (int version = 0; version < 200; version++) {
+            for (UUID id : ids) {
+                Event event = event(id, "Version " + version, DENIS);
+                store.put(event, store.contentKey(event));
+                expectedEvents.put(id, event);
+            }
+        }
+        store.remove(ids.get(0));
+        expectedEvents.remove(ids.get(0));
+
+        assertTrue(store.getCompactedChunks() > 0);
+        assertTrue(store.getOffHeapBytes() <= 4 * store.getLiveBytes() + 2 * 4096);
+        assertEquals(19, store.size());
+        assertNull(store.get(ids.get(0)));
+        for (Event event : expectedEvents.values()) {
+            assertEquals(event, store.get(event.getId()));
+            assertTrue(store.isStored(event));
+        }
+    }
+
+    @Test
+    public void testEventLargerThanChunk() {
+
+        OffHeapEventStore store = new OffHeapEventStore(64);
+        Event event = event(UUID.randomUUID(), "Event with a title which doesn't fit into one chunk of the store", DENIS);
+
+        store.put(event, store.contentKey(event));
+
+        assertEquals(event, store.get(event.getId()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEventWithSecondsIsRejected() {
+
+        OffHeapEventStore store = new OffHeapEventStore();
+        Event event = new Event.EventBuilder(event(UUID.randomUUID(), "Event", DENIS))
+                .startDate(LocalDateTime.of(2020, 1, 1, 12, 0, 30)).build();
+
+        store.put(event, store.contentKey(event));
+    }
+}
@@ -0,0 +1,110 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+import com.diosoft.calendar.server.exception.DateTimeFormatException;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryEventCodecTest {
+
+    private final BinaryEventCodec codec = new BinaryEventCodec();
+
+    private final Person denis = new Person.PersonBuilder().name("Denis").lastName("Milyaev").email("denis@ukr.net").build();
+    private final Person ivan = new Person.PersonBuilder().name("Ivan").lastName("Ivanov").email("ivan@ukr.net").build();
+
+    @Test
+    public void testEncodeAndDecode() throws IOException {
+
+        Event expectedEvent = event("Meeting", LocalDateTime.of(1969, 12, 31, 23, 15), denis, ivan);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(expectedEvent, out);
+        Event actualEvent = codec.decode(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(expectedEvent, actualEvent);
+        assertEquals(expectedEvent.getId(), actualEvent.getId());
+        assertEquals(expectedEvent.getAttenders(), actualEvent.getAttenders());
+    }
+
+    @Test
+    public void testEncodeAndDecodeWithoutOptionalFields() throws IOException {
+
+        Event expectedEvent = new Event.EventBuilder()
+                .id(UUID.randomUUID())
+                .startDate(LocalDateTime.of(2020, 1, 1, 10, 0))
+                .endDate(LocalDateTime.of(2020, 1, 1, 9, 0))
+                .attendersSet(new HashSet<Person>()).build();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(expectedEvent, out);
+        Event actualEvent = codec.decode(new ByteArrayInputStream(out.toByteArray()));
+
+        assertNull(actualEvent.getTitle());
+        assertNull(actualEvent.getDescription());
+        assertEquals(expectedEvent.getStartDate(), actualEvent.getStartDate());
+        assertEquals(expectedEvent.getEndDate(), actualEvent.getEndDate());
+    }
+
+    @Test
+    public void testAttendersAreStoredOnceInBlock() throws IOException {
+
+        List<Event> expectedEvents = new ArrayList<Event>();
+        for (int i = 0; i < 100; i++) expectedEvents.add(event("Meeting", LocalDateTime.of(2020, 1, 1, 10, 0).plusDays(i), denis, ivan));
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        codec.encodeAll(expectedEvents, block);
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        codec.encode(expectedEvents.get(0), single);
+
+        assertEquals(expectedEvents, codec.decodeAll(new ByteArrayInputStream(block.toByteArray())));
+//  every next event takes only its id, references and dates
+        assertTrue(block.size() < single.size() + 99 * 32);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeNotBinaryFile() throws IOException {
+
+        codec.decode(new ByteArrayInputStream("<event/>".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testConvertXmlDirectoryToBinary() throws IOException, JAXBException, DateTimeFormatException {
+
+        Path xmlDirectory = Files.createTempDirectory("events-xml");
+        Path binaryDirectory = Files.createTempDirectory("events-bin");
+        XmlEventCodec xmlCodec = new XmlEventCodec(new StAXHelperImpl());
+        Event expectedEvent = event("Conference", LocalDateTime.of(2020, 11, 1, 9, 0), denis);
+        try (java.io.OutputStream out = Files.newOutputStream(xmlDirectory.resolve(expectedEvent.getId() + ".xml"))) {
+            xmlCodec.encode(expectedEvent, out);
+        }
+
+        int count = EventFormatConverter.convert(xmlCodec, xmlDirectory, codec, binaryDirectory);
+
+        assertEquals(1, count);
+        Event actualEvent = codec.decode(Files.newInputStream(binaryDirectory.resolve(expectedEvent.getId() + ".bin")));
+        assertEquals(expectedEvent, actualEvent);
+        assertEquals(expectedEvent.getId(), actualEvent.getId());
+    }
+
+    private static Event event(String title, LocalDateTime startDate, Person... attenders) {
+        return new Event.EventBuilder()
+                .id(UUID.randomUUID()).title(title)
+                .description(title + " description")
+                .startDate(startDate)
+                .endDate(startDate.plusMinutes(90))
+                .attendersSet(new HashSet<Person>(Arrays.asList(attenders))).build();
+    }
+}
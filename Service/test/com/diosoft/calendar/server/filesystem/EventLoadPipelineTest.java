@@ -0,0 +1,102 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.diosoft.calendar.server.common.TestEvents.START;
+import static com.diosoft.calendar.server.common.TestEvents.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventLoadPipelineTest {
+
+    @Test
+    public void testAllEventsArePassedToConsumer() throws Exception {
+
+        final Set<UUID> indexedIds = ConcurrentHashMap.newKeySet();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        EventLoadPipeline pipeline = new EventLoadPipeline("test", event -> {
+            indexedIds.add(event.getId());
+            inFlight.decrementAndGet();
+        }, 4, 2, 16);
+        Set<UUID> expectedIds = new HashSet<UUID>();
+
+        for (int i = 0; i < 1000; i++) {
+            final Event event = event(UUID.randomUUID(), "Event " + i, START.plusHours(i));
+            expectedIds.add(event.getId());
+            pipeline.submit(new Callable<Event>() {
+                @Override
+                public Event call() {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return event;
+                }
+            });
+        }
+
+        assertEquals(1000, pipeline.finish());
+        assertEquals(expectedIds, indexedIds);
+//  parsed events wait for indexers in the bounded queue only
+        assertTrue(maxInFlight.get() <= 16);
+    }
+
+    @Test
+    public void testFailureOfParserIsThrown() throws Exception {
+
+        EventLoadPipeline pipeline = new EventLoadPipeline("test", event -> { }, 2, 1, 4);
+        for (int i = 0; i < 100; i++) {
+            final int number = i;
+            boolean loading = pipeline.submit(new Callable<Event>() {
+                @Override
+                public Event call() throws IOException {
+                    if (number == 10) throw new IOException("Damaged file");
+                    return event(UUID.randomUUID(), "Event " + number, START.plusHours(number));
+                }
+            });
+            if (!loading) break;
+        }
+
+        try {
+            pipeline.finish();
+            fail("Failure of parser must be thrown");
+        } catch (ExecutionException e) {
+            assertEquals("Damaged file", e.getCause().getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testErrorsOfParserAndConsumerAreThrown() throws Exception {
+
+        EventLoadPipeline pipeline = new EventLoadPipeline("test", event -> {
+            if (event.getTitle().equals("Event 5")) throw new StackOverflowError("Consumer");
+        }, 2, 1, 4);
+        for (int i = 0; i < 100; i++) {
+            final int number = i;
+            boolean loading = pipeline.submit(new Callable<Event>() {
+                @Override
+                public Event call() {
+                    if (number == 50) throw new OutOfMemoryError("Parser");
+                    return event(UUID.randomUUID(), "Event " + number, START.plusHours(number));
+                }
+            });
+            if (!loading) break;
+        }
+
+        try {
+            pipeline.finish();
+            fail("Error of consumer must be thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof Error);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.diosoft.calendar.server.common.TestEvents.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileSystemImplTest {
+
+    private Path root;
+    private FileSystemImpl fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("events");
+        fileSystem = new FileSystemImpl(new BinaryEventCodec(), root + "/", AckPolicy.WRITE);
+    }
+
+    @Test
+    public void testRapidEditsKeepLastVersion() throws Exception {
+
+        UUID id = UUID.randomUUID();
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+        Event lastVersion = null;
+
+        for (int i = 0; i < 200; i++) {
+            lastVersion = event(id, "Version " + i);
+            futures.add(fileSystem.write(lastVersion));
+        }
+        for (CompletableFuture<Void> future : futures) future.get();
+
+        assertEquals(lastVersion, fileSystem.read(id));
+        assertEquals(200, fileSystem.getWriteLatency().getCount());
+    }
+
+    @Test
+    public void testDeleteAndWriteOfOneIdAreAppliedInOrder() throws Exception {
+
+        for (int i = 0; i < 100; i++) {
+            UUID id = UUID.randomUUID();
+            Event event = event(id, "Edited");
+//  edit is remove and add without waiting for the file system
+            fileSystem.write(event(id, "Original"));
+            CompletableFuture<Boolean> deleted = fileSystem.delete(id);
+            CompletableFuture<Void> written = fileSystem.write(event);
+            CompletableFuture<Boolean> deletedAgain = fileSystem.delete(id);
+            CompletableFuture<Boolean> deletedTwice = fileSystem.delete(id);
+            fileSystem.write(event).get();
+
+            assertTrue(deleted.get());
+            written.get();
+            assertTrue(deletedAgain.get());
+            assertEquals(false, deletedTwice.get());
+            assertEquals(event, fileSystem.read(id));
+        }
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+
+        SlowCodec codec = new SlowCodec();
+        FileSystemImpl rejecting = new FileSystemImpl(codec, root + "/", AckPolicy.WRITE, 0, 2, OverflowPolicy.REJECT);
+        CompletableFuture<Void> first = rejecting.write(event(UUID.randomUUID(), "Slow"));
+        CompletableFuture<Void> second = rejecting.write(event(UUID.randomUUID(), "Slow"));
+
+        try {
+            rejecting.write(event(UUID.randomUUID(), "Fast"));
+            fail("Write over the limit must be rejected");
+        } catch (IOException e) {
+//  expected
+        }
+        assertEquals(2, rejecting.getQueueDepth());
+        assertEquals(1, rejecting.getRejectedOperations());
+
+        codec.disk.countDown();
+        first.get();
+        second.get();
+        assertEquals(0, rejecting.getQueueDepth());
+        assertEquals(2, rejecting.getQueueWait().getCount());
+    }
+
+    @Test
+    public void testSpillWhenQueueIsFull() throws Exception {
+
+        SlowCodec codec = new SlowCodec();
+        FileSystemImpl spilling = new FileSystemImpl(codec, root + "/", AckPolicy.WRITE, 2, 1, OverflowPolicy.SPILL);
+        CompletableFuture<Void> slow = spilling.write(event(UUID.randomUUID(), "Slow"));
+        Event spilledEvent = event(UUID.randomUUID(), "Fast");
+
+        CompletableFuture<Void> spilled = spilling.write(spilledEvent);
+
+        assertEquals(1, spilling.getSpilledOperations());
+        assertEquals(2, spilling.getQueueDepth());
+        codec.disk.countDown();
+        slow.get();
+        spilled.get();
+        assertEquals(spilledEvent, spilling.read(spilledEvent.getId()));
+        assertEquals(0, spilling.getQueueDepth());
+//  spill file is moved into place
+        assertTrue(!Files.newDirectoryStream(root.resolve(".spill")).iterator().hasNext());
+    }
+
+    @Test
+    public void testBlockWhenQueueIsFull() throws Exception {
+
+        SlowCodec codec = new SlowCodec();
+        final FileSystemImpl blocking = new FileSystemImpl(codec, root + "/", AckPolicy.WRITE, 0, 1, OverflowPolicy.BLOCK);
+        CompletableFuture<Void> slow = blocking.write(event(UUID.randomUUID(), "Slow"));
+        final Event blockedEvent = event(UUID.randomUUID(), "Fast");
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocking.write(blockedEvent).get();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        publisher.start();
+        publisher.join(200);
+        assertTrue(publisher.isAlive());
+        codec.disk.countDown();
+        publisher.join();
+        slow.get();
+        assertEquals(blockedEvent, blocking.read(blockedEvent.getId()));
+    }
+
+    @Test
+    public void testWriteAfterCloseLeavesNothingQueued() throws Exception {
+
+        fileSystem.close();
+        try {
+            fileSystem.write(event(UUID.randomUUID(), "Late"));
+            fail("Write after close must fail");
+        } catch (RejectedExecutionException e) {
+//  expected
+        }
+        assertEquals(0, fileSystem.getQueueDepth());
+    }
+
+    @Test
+    public void testErrorOfWriteFailsOperationsOfId() throws Exception {
+
+        FileSystemImpl failing = new FileSystemImpl(new BrokenCodec(), root + "/", AckPolicy.WRITE, 0, 10, OverflowPolicy.REJECT);
+        UUID id = UUID.randomUUID();
+        try {
+            failing.write(event(id, "Broken")).get();
+            fail("Write must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        assertEquals(0, failing.getQueueDepth());
+
+        Event event = event(id, "Fixed");
+        failing.write(event).get();
+        assertEquals(event, failing.read(id));
+    }
+//  encoding of events titled Slow waits for the disk latch
+    private static class SlowCodec extends BinaryEventCodec {
+        final CountDownLatch disk = new CountDownLatch(1);
+
+        @Override
+        public void encode(Event event, OutputStream out) throws IOException {
+            if ("Slow".equals(event.getTitle())) {
+                try {
+                    disk.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            super.encode(event, out);
+        }
+    }
+
+//  encoding of events titled Broken throws an Error
+    private static class BrokenCodec extends BinaryEventCodec {
+
+        @Override
+        public void encode(Event event, OutputStream out) throws IOException {
+            if ("Broken".equals(event.getTitle())) throw new AssertionError("Broken codec");
+            super.encode(event, out);
+        }
+    }
+}
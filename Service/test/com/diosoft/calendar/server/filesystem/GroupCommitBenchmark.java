@@ -0,0 +1,67 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures throughput and commit latency of LogFileSystemImpl with FSYNC acknowledgement
+ * for commit of every record and for group commit. Events are encoded by BinaryEventCodec,
+ * so the cost of the log outweighs serialization.
+ * Run: java GroupCommitBenchmark [threads] [events per thread] [batch size] [max delay micros]
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int eventsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        long maxDelayMicros = args.length > 3 ? Long.parseLong(args[3]) : 200;
+
+        run("commit of every record", threads, eventsPerThread, 1, 0);
+        run("group commit", threads, eventsPerThread, batchSize, maxDelayMicros);
+    }
+
+    private static void run(String name, int threads, final int eventsPerThread, int batchSize, long maxDelayMicros)
+            throws Exception {
+        Path directory = Files.createTempDirectory("event-log");
+        final LogFileSystemImpl fileSystem = new LogFileSystemImpl(new BinaryEventCodec(), directory.toString(),
+                AckPolicy.FSYNC, batchSize, maxDelayMicros);
+        final Set<Person> attenders = new HashSet<Person>();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < eventsPerThread; i++) {
+                        LocalDateTime eventStart = LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(i);
+                        Event event = new Event.EventBuilder()
+                                .id(UUID.randomUUID()).title("Event " + i).description("Description " + i)
+                                .startDate(eventStart).endDate(eventStart.plusMinutes(30))
+                                .attendersSet(attenders).build();
+                        fileSystem.write(event).get();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) future.get();
+        long nanos = System.nanoTime() - start;
+        executorService.shutdown();
+
+        long events = (long) threads * eventsPerThread;
+        System.out.println(name + " (batch " + batchSize + ", delay " + maxDelayMicros + "us, " + threads + " threads):");
+        System.out.println("  throughput:    " + events * 1000000000L / nanos + " events/s");
+        System.out.println("  average batch: " + String.format("%.1f", fileSystem.getAverageBatchSize()));
+        System.out.println("  latency:       " + fileSystem.getWriteLatency());
+        fileSystem.close();
+    }
+}
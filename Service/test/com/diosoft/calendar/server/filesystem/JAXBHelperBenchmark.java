@@ -0,0 +1,93 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.adapter.EventAdapter;
+import com.diosoft.calendar.server.adapter.EventListAdapter;
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Events per second of write and read of JAXBHelperImpl with cached JAXBContext compared with
+ * creation of JAXBContext on every call as JAXBHelperImpl did before.
+ * Run: java JAXBHelperBenchmark [events]
+ */
+public class JAXBHelperBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        Set<Person> attenders = new HashSet<Person>();
+        attenders.add(new Person.PersonBuilder().name("Denis").lastName("Milyaev").email("denis@ukr.net").build());
+        attenders.add(new Person.PersonBuilder().name("Ivan").lastName("Ivanov").email("ivan@ukr.net").build());
+        Event event = new Event.EventBuilder()
+                .id(UUID.randomUUID()).title("Meeting").description("Meeting with Ivan")
+                .startDate(LocalDateTime.of(2020, 10, 31, 10, 0)).endDate(LocalDateTime.of(2020, 10, 31, 11, 0))
+                .attendersSet(attenders).build();
+
+        JAXBHelperImpl jaxbHelper = new JAXBHelperImpl();
+        String xml = write(jaxbHelper, event);
+
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            legacyWrite(event);
+            legacyRead(xml);
+            write(jaxbHelper, event);
+            jaxbHelper.read(new BufferedReader(new StringReader(xml)));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) legacyWrite(event);
+        report("legacy write", events, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < events; i++) write(jaxbHelper, event);
+        report("cached write", events, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < events; i++) legacyRead(xml);
+        report("legacy read ", events, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < events; i++) jaxbHelper.read(new BufferedReader(new StringReader(xml)));
+        report("cached read ", events, System.nanoTime() - start);
+    }
+
+    private static void report(String name, int events, long nanos) {
+        System.out.println(name + ": " + events * 1000000000L / nanos + " events/s");
+    }
+
+    private static String write(JAXBHelper jaxbHelper, Event event) throws Exception {
+        StringWriter out = new StringWriter();
+        BufferedWriter writer = new BufferedWriter(out);
+        jaxbHelper.write(event, writer);
+        writer.flush();
+        return out.toString();
+    }
+
+//  former implementation of JAXBHelperImpl
+    private static String legacyWrite(Event event) throws Exception {
+        StringWriter out = new StringWriter();
+        BufferedWriter writer = new BufferedWriter(out);
+        JAXBContext context = JAXBContext.newInstance(EventAdapter.class);
+        Marshaller m = context.createMarshaller();
+        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        m.marshal(new EventAdapter(event), writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    private static EventAdapter legacyRead(String xml) throws JAXBException {
+        JAXBContext context = JAXBContext.newInstance(EventListAdapter.class);
+        return (EventAdapter) context.createUnmarshaller().unmarshal(new BufferedReader(new StringReader(xml)));
+    }
+}
@@ -0,0 +1,251 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static com.diosoft.calendar.server.common.TestEvents.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogFileSystemImplTest {
+
+    private final BinaryEventCodec codec = new BinaryEventCodec();
+
+    @Test
+    public void testReplayKeepsLastVersionOfEveryEvent() throws Exception {
+
+        Path directory = Files.createTempDirectory("event-log");
+        LogFileSystemImpl fileSystem = new LogFileSystemImpl(codec, directory.toString());
+        Event kept = event("Kept");
+        Event removed = event("Removed");
+        Event edited = new Event.EventBuilder(kept).title("Edited").build();
+        fileSystem.write(kept).get();
+        fileSystem.write(removed).get();
+        fileSystem.write(edited).get();
+        assertTrue(fileSystem.delete(removed.getId()).get());
+        fileSystem.close();
+
+        LogFileSystemImpl replayed = new LogFileSystemImpl(codec, directory.toString());
+        assertEquals(edited, replayed.read(kept.getId()));
+        assertNull(replayed.read(removed.getId()));
+        assertEquals(Arrays.asList(edited), replayed.readAllEventsFromXMLResources());
+        replayed.close();
+    }
+
+    @Test
+    public void testTornTailIsCutOff() throws Exception {
+
+        Path directory = Files.createTempDirectory("event-log");
+        LogFileSystemImpl fileSystem = new LogFileSystemImpl(codec, directory.toString());
+        Event committed = event("Committed");
+        Event torn = event("Torn");
+        fileSystem.write(committed).get();
+        long size = logSize(directory);
+        fileSystem.write(torn).get();
+        fileSystem.close();
+//  crash in the middle of the second record
+        Path segment = directory.resolve(LogSegment.fileName(1));
+        byte[] bytes = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOf(bytes, (int) (size + (bytes.length - size) / 2)));
+
+        LogFileSystemImpl replayed = new LogFileSystemImpl(codec, directory.toString());
+        assertEquals(size, logSize(directory));
+        assertEquals(committed, replayed.read(committed.getId()));
+        assertNull(replayed.read(torn.getId()));
+//  the log goes on after the cut
+        replayed.write(torn).get();
+        replayed.close();
+        LogFileSystemImpl again = new LogFileSystemImpl(codec, directory.toString());
+        assertEquals(torn, again.read(torn.getId()));
+        assertEquals(2, again.readAllEventsFromXMLResources().size());
+        again.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testDamagedRecordOfSealedSegmentStopsReplay() throws Exception {
+
+        Path directory = Files.createTempDirectory("event-log");
+//  every record is in its own segment
+        LogFileSystemImpl fileSystem = new LogFileSystemImpl(codec, directory.toString(), AckPolicy.WRITE, 1, 0, 1, 60);
+        fileSystem.write(event("First")).get();
+        fileSystem.write(event("Second")).get();
+        fileSystem.close();
+        Path segment = directory.resolve(LogSegment.fileName(1));
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment, bytes);
+
+        new LogFileSystemImpl(codec, directory.toString());
+    }
+
+    @Test
+    public void testCompactionDropsDeadRecords() throws Exception {
+
+        Path directory = Files.createTempDirectory("event-log");
+        LogFileSystemImpl fileSystem = new LogFileSystemImpl(codec, directory.toString(), AckPolicy.WRITE, 1, 0, 4096, 60);
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 10; i++) events.add(event("Event " + i));
+//  every event is rewritten, most records become dead
+        for (int version = 0; version < 20; version++) {
+            for (int i = 0; i < events.size(); i++) {
+                events.set(i, new Event.EventBuilder(events.get(i)).title("Event " + i + " version " + version).build());
+                fileSystem.write(events.get(i)).get();
+            }
+        }
+        fileSystem.delete(events.remove(0).getId()).get();
+        long size = logSize(directory);
+
+        fileSystem.compact();
+
+        assertTrue(logSize(directory) < size / 4);
+        for (Event event : events) assertEquals(event, fileSystem.read(event.getId()));
+        fileSystem.close();
+        LogFileSystemImpl replayed = new LogFileSystemImpl(codec, directory.toString());
+        assertEquals(new HashSet<Event>(events), new HashSet<Event>(replayed.readAllEventsFromXMLResources()));
+        replayed.close();
+    }
+
+    @Test
+    public void testReadEventsOfMappedSegments() throws Exception {
+
+        Path directory = Files.createTempDirectory("event-log");
+//  tiny segments, every commit starts a new one and seals the previous
+        LogFileSystemImpl fileSystem = new LogFileSystemImpl(codec, directory.toString(), AckPolicy.WRITE, 1, 0, 1, 60);
+        List<Event> expectedEvents = new ArrayList<Event>();
+        for (int i = 0; i < 20; i++) {
+            Event event = event("Event " + i);
+            fileSystem.write(event).get();
+            expectedEvents.add(event);
+        }
+
+        assertTrue(fileSystem.getMappedSegments() >= 19);
+        for (Event event : expectedEvents) assertEquals(event, fileSystem.read(event.getId()));
+        final Queue<Event> loaded = new ConcurrentLinkedQueue<Event>();
+        fileSystem.readAllEvents(new Consumer<Event>() {
+            @Override
+            public void accept(Event event) {
+                loaded.add(event);
+            }
+        });
+        assertEquals(new HashSet<Event>(expectedEvents), new HashSet<Event>(loaded));
+        fileSystem.close();
+    }
+
+    @Test
+    public void testReplayAndCompactionOfMappedSegments() throws Exception {
+
+        Path directory = Files.createTempDirectory("event-log");
+        LogFileSystemImpl fileSystem = new LogFileSystemImpl(codec, directory.toString(), AckPolicy.WRITE, 1, 0, 1, 60);
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 10; i++) {
+            Event event = event("Event " + i);
+            fileSystem.write(event).get();
+            events.add(event);
+        }
+        fileSystem.close();
+
+        LogFileSystemImpl replayed = new LogFileSystemImpl(codec, directory.toString(), AckPolicy.WRITE, 1, 0, 1, 60);
+        assertEquals(9, replayed.getMappedSegments());
+        for (Event event : events.subList(0, 8)) replayed.delete(event.getId()).get();
+        replayed.compact();
+
+        assertEquals(events.get(8), replayed.read(events.get(8).getId()));
+        assertEquals(events.get(9), replayed.read(events.get(9).getId()));
+        assertEquals(2, replayed.readAllEventsFromXMLResources().size());
+        replayed.close();
+    }
+
+    @Test
+    public void testReadOfUncommittedRecords() throws Exception {
+
+        Path directory = Files.createTempDirectory("event-log");
+//  the group waits a second for more records, so the records are not committed while they are read
+        LogFileSystemImpl fileSystem = new LogFileSystemImpl(codec, directory.toString(), AckPolicy.NONE, 256, 1000000);
+        Event event = event("Event");
+        fileSystem.write(event).get();
+        assertEquals(event, fileSystem.read(event.getId()));
+        fileSystem.delete(event.getId()).get();
+        assertNull(fileSystem.read(event.getId()));
+        fileSystem.close();
+    }
+
+    @Test
+    public void testDeleteOfUnknownEvent() throws Exception {
+
+        Path directory = Files.createTempDirectory("event-log");
+        LogFileSystemImpl fileSystem = new LogFileSystemImpl(codec, directory.toString());
+        fileSystem.write(event("Event")).get();
+        long size = logSize(directory);
+
+        assertFalse(fileSystem.delete(UUID.randomUUID()).get());
+        fileSystem.close();
+        assertEquals(size, logSize(directory));
+    }
+
+    @Test
+    public void testRecordsAreCutOffWhenForceFails() throws Exception {
+
+        final Path directory = Files.createTempDirectory("event-log");
+        final AtomicBoolean failForce = new AtomicBoolean();
+        LogFileSystemImpl fileSystem = new LogFileSystemImpl(codec, directory.toString(), AckPolicy.FSYNC, 1, 0) {
+            @Override
+            LogSegment openSegment(long sequence) throws IOException {
+                return new LogSegment(sequence, directory.resolve(LogSegment.fileName(sequence))) {
+                    @Override
+                    void force() throws IOException {
+                        if (failForce.get()) throw new IOException("Disk is gone");
+                        super.force();
+                    }
+                };
+            }
+        };
+        Event kept = event("Kept");
+        Event lost = event("Lost");
+        fileSystem.write(kept).get();
+        long size = logSize(directory);
+
+        failForce.set(true);
+        try {
+            fileSystem.write(lost).get();
+            fail("Failure of force must be thrown");
+        } catch (ExecutionException e) {
+            assertEquals("Disk is gone", e.getCause().getMessage());
+        }
+        try {
+            fileSystem.delete(kept.getId()).get();
+            fail("Failure of force must be thrown");
+        } catch (ExecutionException e) {
+            assertEquals("Disk is gone", e.getCause().getMessage());
+        }
+        assertEquals(size, logSize(directory));
+        failForce.set(false);
+        fileSystem.close();
+
+//  neither the failed write nor the failed delete is replayed
+        LogFileSystemImpl replayed = new LogFileSystemImpl(codec, directory.toString());
+        assertEquals(kept, replayed.read(kept.getId()));
+        assertNull(replayed.read(lost.getId()));
+        replayed.close();
+    }
+
+    private static long logSize(Path directory) throws IOException {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) size += Files.size(file);
+        }
+        return size;
+    }
+}
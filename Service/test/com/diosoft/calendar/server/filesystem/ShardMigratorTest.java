@@ -0,0 +1,80 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.diosoft.calendar.server.common.TestEvents.START;
+import static com.diosoft.calendar.server.common.TestEvents.event;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardMigratorTest {
+
+    private final BinaryEventCodec codec = new BinaryEventCodec();
+
+    @Test
+    public void testMigrateFlatDirectoryToShards() throws Exception {
+
+        Path root = Files.createTempDirectory("events");
+        List<Event> expectedEvents = writeEvents(new FileSystemImpl(codec, root + "/", AckPolicy.WRITE), 50);
+
+        int moved = ShardMigrator.migrate(root, codec.getFileExtension(), 2);
+
+        assertEquals(50, moved);
+        FileSystemImpl sharded = new FileSystemImpl(codec, root + "/", AckPolicy.WRITE, 2);
+        for (Event event : expectedEvents) {
+            String id = event.getId().toString();
+            assertTrue(Files.exists(root.resolve(id.substring(0, 2)).resolve(id.substring(2, 4)).resolve(id + ".bin")));
+            assertEquals(event, sharded.read(event.getId()));
+        }
+        assertEquals(new HashSet<Event>(expectedEvents), new HashSet<Event>(sharded.readAllEventsFromXMLResources()));
+        assertEquals(50, sharded.readEventVersions().size());
+    }
+
+    @Test
+    public void testMigrateShardsBackToFlatDirectory() throws Exception {
+
+        Path root = Files.createTempDirectory("events");
+        List<Event> expectedEvents = writeEvents(new FileSystemImpl(codec, root + "/", AckPolicy.WRITE, 2), 10);
+
+        int moved = ShardMigrator.migrate(root, codec.getFileExtension(), 0);
+
+        assertEquals(10, moved);
+        FileSystemImpl flat = new FileSystemImpl(codec, root + "/", AckPolicy.WRITE);
+        for (Event event : expectedEvents) assertEquals(event, flat.read(event.getId()));
+//  empty shards are deleted
+        for (Path path : Files.newDirectoryStream(root)) assertTrue(Files.isRegularFile(path));
+    }
+
+    @Test
+    public void testShardsAreRefusedUntilFlatDirectoryIsMigrated() throws Exception {
+
+        Path root = Files.createTempDirectory("events");
+        List<Event> expectedEvents = writeEvents(new FileSystemImpl(codec, root + "/", AckPolicy.WRITE), 5);
+
+        try {
+            new FileSystemImpl(codec, root + "/", AckPolicy.WRITE, 2);
+            fail("Flat directory must be migrated first");
+        } catch (IllegalStateException e) {
+//  expected
+        }
+        ShardMigrator.migrate(root, codec.getFileExtension(), 2);
+        FileSystemImpl sharded = new FileSystemImpl(codec, root + "/", AckPolicy.WRITE, 2);
+        assertEquals(new HashSet<Event>(expectedEvents), new HashSet<Event>(sharded.readAllEventsFromXMLResources()));
+    }
+
+    private static List<Event> writeEvents(FileSystemImpl fileSystem, int count) throws Exception {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < count; i++) {
+            Event event = event(UUID.randomUUID(), "Event " + i, START.plusDays(i));
+            fileSystem.write(event).get();
+            events.add(event);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,86 @@
+package com.diosoft.calendar.server.filesystem;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+import com.diosoft.calendar.server.exception.DateTimeFormatException;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class StAXHelperImplTest {
+
+    private final StAXHelperImpl staxHelper = new StAXHelperImpl();
+
+    @Test
+    public void testWriteAndRead() throws IOException, JAXBException, DateTimeFormatException {
+
+        Set<Person> attenders = new HashSet<Person>();
+        attenders.add(new Person.PersonBuilder().name("Denis").lastName("Milyaev").email("denis@ukr.net").build());
+        attenders.add(new Person.PersonBuilder().name("Ivan").lastName("Ivanov").email("ivan@ukr.net").build());
+        Event expectedEvent = new Event.EventBuilder()
+                .id(UUID.randomUUID()).title("Meeting <&> planning")
+                .description("Meeting with Ivan")
+                .startDate(LocalDateTime.of(2020, 10, 31, 10, 0))
+                .endDate(LocalDateTime.of(2020, 10, 31, 11, 30))
+                .attendersSet(attenders).build();
+
+        StringWriter out = new StringWriter();
+        BufferedWriter writer = new BufferedWriter(out);
+        staxHelper.write(expectedEvent, writer);
+        writer.flush();
+        Event actualEvent = staxHelper.read(new BufferedReader(new StringReader(out.toString())));
+
+        assertEquals(expectedEvent, actualEvent);
+        assertEquals(expectedEvent.getId(), actualEvent.getId());
+        assertEquals(expectedEvent.getAttenders(), actualEvent.getAttenders());
+    }
+
+    @Test
+    public void testReadFileOfJAXBHelper() throws JAXBException, DateTimeFormatException {
+
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+                "<event>\n" +
+                "    <id>1b4e28ba-2fa1-11d2-883f-0016d3cca427</id>\n" +
+                "    <title>Conference</title>\n" +
+                "    <description>Java conference</description>\n" +
+                "    <startDate>2020-11-01 09:00</startDate>\n" +
+                "    <endDate>2020-11-02 12:00</endDate>\n" +
+                "    <attenders>\n" +
+                "        <attender>\n" +
+                "            <name>Denis</name>\n" +
+                "            <lastName>Milyaev</lastName>\n" +
+                "            <email>denis@ukr.net</email>\n" +
+                "        </attender>\n" +
+                "    </attenders>\n" +
+                "</event>\n";
+        Set<Person> attenders = new HashSet<Person>();
+        attenders.add(new Person.PersonBuilder().name("Denis").lastName("Milyaev").email("denis@ukr.net").build());
+
+        Event event = staxHelper.read(new BufferedReader(new StringReader(xml)));
+
+        assertEquals(UUID.fromString("1b4e28ba-2fa1-11d2-883f-0016d3cca427"), event.getId());
+        assertEquals("Conference", event.getTitle());
+        assertEquals("Java conference", event.getDescription());
+        assertEquals(LocalDateTime.of(2020, 11, 1, 9, 0), event.getStartDate());
+        assertEquals(LocalDateTime.of(2020, 11, 2, 12, 0), event.getEndDate());
+        assertEquals(attenders, event.getAttenders());
+    }
+
+    @Test(expected = DateTimeFormatException.class)
+    public void testReadWrongDate() throws JAXBException, DateTimeFormatException {
+
+        String xml = "<event><id>1b4e28ba-2fa1-11d2-883f-0016d3cca427</id><startDate>2020-11-1 9:00</startDate></event>";
+        staxHelper.read(new BufferedReader(new StringReader(xml)));
+    }
+}
@@ -15,8 +15,10 @@ import org.mockito.Matchers;
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
 import java.rmi.RemoteException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
@@ -366,11 +368,11 @@ public class CalendarServiceImplTest {
         eventList.add(event1);
         eventList.add(event2);
 
-        when(mockDataStore.getEventByAttender(attender)).thenReturn(eventList);
+        when(mockDataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate)).thenReturn(eventList);
         boolean isFreeResult = calendarService.isAttenderFree(attender, startDate ,endDate);
 
         Assert.assertTrue(isFreeResult);
-        verify(mockDataStore).getEventByAttender(attender);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(attender, startDate, endDate);
     }
 
     @Test
@@ -402,11 +404,11 @@ public class CalendarServiceImplTest {
         eventList.add(event1);
         eventList.add(event2);
 
-        when(mockDataStore.getEventByAttender(attender)).thenReturn(eventList);
+        when(mockDataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate)).thenReturn(eventList);
         boolean isFreeResult = calendarService.isAttenderFree(attender, startDate ,endDate);
 
         Assert.assertFalse(isFreeResult);
-        verify(mockDataStore).getEventByAttender(attender);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(attender, startDate, endDate);
     }
 
     @Test
@@ -438,11 +440,11 @@ public class CalendarServiceImplTest {
         eventList.add(event1);
         eventList.add(event2);
 
-        when(mockDataStore.getEventByAttender(attender)).thenReturn(eventList);
+        when(mockDataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate)).thenReturn(eventList);
         boolean isFreeResult = calendarService.isAttenderFree(attender, startDate ,endDate);
 
         Assert.assertFalse(isFreeResult);
-        verify(mockDataStore).getEventByAttender(attender);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(attender, startDate, endDate);
     }
 
     @Test
@@ -474,11 +476,11 @@ public class CalendarServiceImplTest {
         eventList.add(event1);
         eventList.add(event2);
 
-        when(mockDataStore.getEventByAttender(attender)).thenReturn(eventList);
+        when(mockDataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate)).thenReturn(eventList);
         boolean isFreeResult = calendarService.isAttenderFree(attender, startDate ,endDate);
 
         Assert.assertFalse(isFreeResult);
-        verify(mockDataStore).getEventByAttender(attender);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(attender, startDate, endDate);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -527,11 +529,11 @@ public class CalendarServiceImplTest {
         calendarService.add(event2);
         List<Event> expectedList = new ArrayList<Event>();
 
-        when(mockDataStore.getEventByAttender(attender)).thenReturn(expectedList);
+        when(mockDataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate)).thenReturn(expectedList);
         List<Event> resultList = calendarService.searchByAttenderIntoPeriod(attender, startDate ,endDate);
 
         Assert.assertEquals(expectedList, resultList);
-        verify(mockDataStore).getEventByAttender(attender);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(attender, startDate, endDate);
     }
 
     @Test
@@ -562,11 +564,11 @@ public class CalendarServiceImplTest {
         List<Event> expectedList = new ArrayList<Event>();
         expectedList.add(event1);
 
-        when(mockDataStore.getEventByAttender(attender)).thenReturn(expectedList);
+        when(mockDataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate)).thenReturn(expectedList);
         List<Event> resultList = calendarService.searchByAttenderIntoPeriod(attender, startDate ,endDate);
 
         Assert.assertEquals(expectedList, resultList);
-        verify(mockDataStore).getEventByAttender(attender);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(attender, startDate, endDate);
     }
 
     @Test
@@ -598,11 +600,11 @@ public class CalendarServiceImplTest {
         expectedList.add(event1);
         expectedList.add(event2);
 
-        when(mockDataStore.getEventByAttender(attender)).thenReturn(expectedList);
+        when(mockDataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate)).thenReturn(expectedList);
         List<Event> resultList = calendarService.searchByAttenderIntoPeriod(attender, startDate ,endDate);
 
         Assert.assertEquals(expectedList, resultList);
-        verify(mockDataStore).getEventByAttender(attender);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(attender, startDate, endDate);
     }
 
     @Test
@@ -633,11 +635,11 @@ public class CalendarServiceImplTest {
         List<Event> expectedList = new ArrayList<Event>();
         expectedList.add(event1);
 
-        when(mockDataStore.getEventByAttender(attender)).thenReturn(expectedList);
+        when(mockDataStore.getEventByAttenderIntoPeriod(attender, startDate, endDate)).thenReturn(expectedList);
         List<Event> resultList = calendarService.searchByAttenderIntoPeriod(attender, startDate ,endDate);
 
         Assert.assertEquals(expectedList, resultList);
-        verify(mockDataStore).getEventByAttender(attender);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(attender, startDate, endDate);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -715,18 +717,12 @@ public class CalendarServiceImplTest {
         expectedList.add(timeList2);
         expectedList.add(timeList3);
 
-        List<Event> list1 = new ArrayList<Event>();
-        list1.add(event1);
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-10-31 00:00").toLocalDate())).thenReturn(list1);
-
-        List<Event> list2 = new ArrayList<Event>();
-        list2.add(event2);
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-11-01 00:00").toLocalDate())).thenReturn(list2);
-
-        List<Event> list3 = new ArrayList<Event>();
-        list3.add(event2);
-        list3.add(event3);
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-11-02 00:00").toLocalDate())).thenReturn(list3);
+        List<Event> eventList = new ArrayList<Event>();
+        eventList.add(event1);
+        eventList.add(event2);
+        eventList.add(event3);
+        when(mockDataStore.getEventIntoPeriod(DateParser.stringToDate("2020-10-31 00:00"),
+                DateParser.stringToDate("2020-11-02 00:00").toLocalDate().atTime(LocalTime.MAX))).thenReturn(eventList);
 
         long start = System.nanoTime();
         List<List<LocalDateTime>> resultList = calendarService.searchFreeTime(startDate ,endDate);
@@ -734,7 +730,8 @@ public class CalendarServiceImplTest {
         long timeConsumedMillis = finish - start;
         System.out.println("SearchFreeTime: " + timeConsumedMillis + " nanosec!!!!!!!!!!!!!!!");
         Assert.assertEquals(expectedList, resultList);
-        verify(mockDataStore,times(3)).getEventByDay(Matchers.any(LocalDate.class));
+        verify(mockDataStore,times(1)).getEventIntoPeriod(Matchers.any(LocalDateTime.class), Matchers.any(LocalDateTime.class));
+        verify(mockDataStore,never()).getEventByDay(Matchers.any(LocalDate.class));
     }
 
     @Test
@@ -793,18 +790,12 @@ public class CalendarServiceImplTest {
         expectedList.add(timeList2);
         expectedList.add(timeList3);
 
-        List<Event> list1 = new ArrayList<Event>();
-        list1.add(event1);
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-10-31 00:00").toLocalDate())).thenReturn(list1);
-
-        List<Event> list2 = new ArrayList<Event>();
-        list2.add(event2);
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-11-01 00:00").toLocalDate())).thenReturn(list2);
-
-        List<Event> list3 = new ArrayList<Event>();
-        list3.add(event2);
-        list3.add(event3);
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-11-02 00:00").toLocalDate())).thenReturn(list3);
+        List<Event> eventList = new ArrayList<Event>();
+        eventList.add(event1);
+        eventList.add(event2);
+        eventList.add(event3);
+        when(mockDataStore.getEventIntoPeriod(DateParser.stringToDate("2020-10-31 00:00"),
+                DateParser.stringToDate("2020-11-02 00:00").toLocalDate().atTime(LocalTime.MAX))).thenReturn(eventList);
 
         long start = System.nanoTime();
         List<List<LocalDateTime>> resultList = calendarService.searchFreeTime2(startDate, endDate);
@@ -812,7 +803,102 @@ public class CalendarServiceImplTest {
         long timeConsumedMillis = finish - start;
         System.out.println("SearchFreeTime2: " + timeConsumedMillis + " nanosec!!!!!!!!!!!!!!!");
         Assert.assertEquals(expectedList, resultList);
-        verify(mockDataStore,times(3)).getEventByDay(Matchers.any(LocalDate.class));
+        verify(mockDataStore,times(1)).getEventIntoPeriod(Matchers.any(LocalDateTime.class), Matchers.any(LocalDateTime.class));
+        verify(mockDataStore,never()).getEventByDay(Matchers.any(LocalDate.class));
+    }
+
+    @Test
+    public void testSearchIntoPeriod() throws OrderOfArgumentsException, RemoteException, DateTimeFormatException {
+
+        Event longEvent = new Event.EventBuilder(testEvent)
+                .startDate(DateParser.stringToDate("2020-10-30 10:00"))
+                .endDate(DateParser.stringToDate("2020-11-05 10:00")).build();
+        List<Event> eventList = new ArrayList<Event>();
+        eventList.add(longEvent);
+        LocalDate startDay = DateParser.stringToDate("2020-11-01 00:00").toLocalDate();
+        LocalDate endDay = DateParser.stringToDate("2020-11-03 00:00").toLocalDate();
+        when(mockDataStore.getEventIntoPeriod(startDay.atStartOfDay(), endDay.atTime(LocalTime.MAX))).thenReturn(eventList);
+
+        Set<Event> resultSet = calendarService.searchIntoPeriod(startDay, endDay);
+
+        Assert.assertEquals(new HashSet<Event>(eventList), resultSet);
+        verify(mockDataStore,times(1)).getEventIntoPeriod(startDay.atStartOfDay(), endDay.atTime(LocalTime.MAX));
+        verify(mockDataStore,never()).getEventByDay(Matchers.any(LocalDate.class));
+    }
+
+    @Test
+    public void testSearchFreeTime2WithoutFreeTime() throws OrderOfArgumentsException, IOException, DateTimeFormatException {
+
+        attenders.add(testPerson);
+        Event allDayEvent = new Event.EventBuilder(testEvent)
+                .startDate(DateParser.stringToDate("2020-10-31 00:00"))
+                .endDate(DateParser.stringToDate("2020-11-01 00:00")).build();
+        List<Event> eventList = new ArrayList<Event>();
+        eventList.add(allDayEvent);
+        when(mockDataStore.getEventIntoPeriod(allDayEvent.getStartDate(),
+                allDayEvent.getStartDate().toLocalDate().atTime(LocalTime.MAX))).thenReturn(eventList);
+
+        List<List<LocalDateTime>> resultList = calendarService.searchFreeTime2(
+                DateParser.stringToDate("2020-10-31 09:00"), DateParser.stringToDate("2020-10-31 18:00"));
+
+        Assert.assertEquals(new ArrayList<List<LocalDateTime>>(), resultList);
+    }
+
+    @Test
+    public void testSearchCommonFreeTime() throws OrderOfArgumentsException, RemoteException, DateTimeFormatException {
+
+        Person secondPerson = new Person.PersonBuilder()
+                .name("Ivan")
+                .lastName("Ivanov")
+                .email("ivan@ukr.net")
+                .build();
+        Set<Person> meetingAttenders = new HashSet<Person>();
+        meetingAttenders.add(testPerson);
+        meetingAttenders.add(secondPerson);
+        LocalDateTime startDate = DateParser.stringToDate("2020-10-31 09:00");
+        LocalDateTime endDate = DateParser.stringToDate("2020-10-31 18:00");
+
+        List<Event> firstList = new ArrayList<Event>();
+        firstList.add(new Event.EventBuilder(testEvent)
+                .startDate(DateParser.stringToDate("2020-10-31 10:00"))
+                .endDate(DateParser.stringToDate("2020-10-31 12:00")).build());
+        List<Event> secondList = new ArrayList<Event>();
+        secondList.add(new Event.EventBuilder(testEvent)
+                .startDate(DateParser.stringToDate("2020-10-31 11:00"))
+                .endDate(DateParser.stringToDate("2020-10-31 13:00")).build());
+        secondList.add(new Event.EventBuilder(testEvent)
+                .startDate(DateParser.stringToDate("2020-10-31 13:30"))
+                .endDate(DateParser.stringToDate("2020-10-31 17:00")).build());
+        when(mockDataStore.getEventByAttenderIntoPeriod(testPerson, startDate, endDate)).thenReturn(firstList);
+        when(mockDataStore.getEventByAttenderIntoPeriod(secondPerson, startDate, endDate)).thenReturn(secondList);
+
+        List<List<LocalDateTime>> expectedList = new ArrayList<List<LocalDateTime>>();
+        expectedList.add(Arrays.asList(DateParser.stringToDate("2020-10-31 09:00"), DateParser.stringToDate("2020-10-31 10:00")));
+        expectedList.add(Arrays.asList(DateParser.stringToDate("2020-10-31 17:00"), DateParser.stringToDate("2020-10-31 18:00")));
+
+//  half an hour between 13:00 and 13:30 is too short
+        List<List<LocalDateTime>> resultList = calendarService.searchCommonFreeTime(meetingAttenders, startDate, endDate, Duration.ofMinutes(45));
+
+        Assert.assertEquals(expectedList, resultList);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(testPerson, startDate, endDate);
+        verify(mockDataStore).getEventByAttenderIntoPeriod(secondPerson, startDate, endDate);
+    }
+
+    @Test
+    public void testSearchCommonFreeTimeEndsAtEndDate() throws OrderOfArgumentsException, RemoteException, DateTimeFormatException {
+        Set<Person> meetingAttenders = new HashSet<Person>();
+        meetingAttenders.add(testPerson);
+        LocalDateTime startDate = DateParser.stringToDate("2020-10-31 09:00");
+        LocalDateTime endDate = DateParser.stringToDate("2020-10-31 10:10");
+        when(mockDataStore.getEventByAttenderIntoPeriod(testPerson, startDate, endDate)).thenReturn(new ArrayList<Event>());
+
+        List<List<LocalDateTime>> expectedList = new ArrayList<List<LocalDateTime>>();
+        expectedList.add(Arrays.asList(startDate, endDate));
+
+//  the last slot ends at 10:15, but only 70 minutes are in the period
+        Assert.assertEquals(expectedList, calendarService.searchCommonFreeTime(meetingAttenders, startDate, endDate, Duration.ofMinutes(70)));
+        Assert.assertEquals(new ArrayList<List<LocalDateTime>>(),
+                calendarService.searchCommonFreeTime(meetingAttenders, startDate, endDate, Duration.ofMinutes(75)));
     }
 
     @Test
@@ -871,21 +957,16 @@ public class CalendarServiceImplTest {
         expectedList.add(timeList2);
         expectedList.add(timeList3);
 
-        List<Event> list1 = new ArrayList<Event>();
-        list1.add(event1);
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-10-15 00:00").toLocalDate())).thenReturn(list1);
-
-        List<Event> list2 = new ArrayList<Event>();
-        list2.add(event2);
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-10-16 00:00").toLocalDate())).thenReturn(list2);
-
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-10-17 00:00").toLocalDate())).thenReturn(new ArrayList<Event>());
-        when(mockDataStore.getEventByDay(DateParser.stringToDate("2020-10-18 00:00").toLocalDate())).thenReturn(new ArrayList<Event>());
+        List<Event> eventList = new ArrayList<Event>();
+        eventList.add(event1);
+        eventList.add(event2);
+        when(mockDataStore.getEventIntoPeriod(DateParser.stringToDate("2020-10-15 00:00"),
+                DateParser.stringToDate("2020-10-18 00:00").toLocalDate().atTime(LocalTime.MAX))).thenReturn(eventList);
 
         List<List<LocalDateTime>> resultList = calendarService.searchFreeTimeForEvent(eventForSearch, startDate ,endDate);
 
         Assert.assertEquals(expectedList, resultList);
-        verify(mockDataStore,times(4)).getEventByDay(Matchers.any(LocalDate.class));
+        verify(mockDataStore,times(1)).getEventIntoPeriod(Matchers.any(LocalDateTime.class), Matchers.any(LocalDateTime.class));
     }
 
     @Test
@@ -918,4 +999,26 @@ public class CalendarServiceImplTest {
         assertEquals(expectedEventList, resultEventList);
         verify(mockDataStore).searchEventByTitleStartWith(prefix);
     }
+
+    @Test
+    public void testSearchEventByTitleStartWithLimit () throws RemoteException, IllegalArgumentException {
+
+        attenders.add(testPerson);
+        List<Event> expectedEventList = new ArrayList<Event>();
+        expectedEventList.add(testEvent);
+        String prefix = "Tes";
+
+        when(mockDataStore.searchEventByTitleStartWith(prefix, 1)).thenReturn(expectedEventList);
+
+        List<Event> resultEventList = calendarService.searchEventByTitleStartWith(prefix, 1);
+
+        assertEquals(expectedEventList, resultEventList);
+        verify(mockDataStore).searchEventByTitleStartWith(prefix, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearchEventByTitleStartWithIllegalLimit () throws RemoteException, IllegalArgumentException {
+
+        calendarService.searchEventByTitleStartWith("Tes", 0);
+    }
 }
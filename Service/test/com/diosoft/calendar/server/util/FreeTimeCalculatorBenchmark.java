@@ -0,0 +1,89 @@
+package com.diosoft.calendar.server.util;
+
+import com.diosoft.calendar.server.common.Event;
+import com.diosoft.calendar.server.common.Person;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Compares sweep-line FreeTimeCalculator with the former LinkedList implementation of
+ * CalendarServiceImpl.searchFreeTime on dense calendars and checks that both give the same result.
+ * Run: java FreeTimeCalculatorBenchmark [events per day] [days]
+ */
+public class FreeTimeCalculatorBenchmark {
+
+    private static final int MINUTE_INTERVAL = 15;
+
+    public static void main(String[] args) {
+        int eventsPerDay = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+        Random random = new Random(42);
+        LocalDateTime startDate = LocalDateTime.of(2020, 1, 1, 8, 0);
+        LocalDateTime endDate = startDate.plusDays(days);
+        Set<Event> events = new HashSet<Event>();
+        Set<Person> attenders = new HashSet<Person>();
+        for (int i = 0; i < eventsPerDay * days; i++) {
+            LocalDateTime eventStart = startDate.plusMinutes(5 * random.nextInt(days * 24 * 12));
+            events.add(new Event.EventBuilder()
+                    .id(UUID.randomUUID()).title("Event " + i).description("Description " + i)
+                    .startDate(eventStart).endDate(eventStart.plusMinutes(5 + 5 * random.nextInt(24)))
+                    .attendersSet(attenders).build());
+        }
+
+        for (int warmUp = 0; warmUp < 3; warmUp++) {
+            legacySearchFreeTime(events, startDate, endDate);
+            FreeTimeCalculator.searchFreeIntervals(events, startDate, endDate, MINUTE_INTERVAL);
+        }
+
+        int runs = 10;
+        long start = System.nanoTime();
+        List<List<LocalDateTime>> legacyResult = null;
+        for (int i = 0; i < runs; i++) legacyResult = legacySearchFreeTime(events, startDate, endDate);
+        long legacyNanos = (System.nanoTime() - start) / runs;
+
+        start = System.nanoTime();
+        List<List<LocalDateTime>> sweepResult = null;
+        for (int i = 0; i < runs; i++) sweepResult = FreeTimeCalculator.searchFreeIntervals(events, startDate, endDate, MINUTE_INTERVAL);
+        long sweepNanos = (System.nanoTime() - start) / runs;
+
+        System.out.println("events: " + events.size() + ", free intervals: " + sweepResult.size());
+        System.out.println("legacy LinkedList: " + legacyNanos / 1000 + " us/op");
+        System.out.println("sweep line:        " + sweepNanos / 1000 + " us/op");
+        System.out.println("same result:       " + legacyResult.equals(sweepResult));
+    }
+
+//  former implementation of CalendarServiceImpl.searchFreeTime
+    private static List<List<LocalDateTime>> legacySearchFreeTime(Set<Event> eventSet, LocalDateTime startDate, LocalDateTime endDate) {
+        List<List<LocalDateTime>> freeTimeList = new LinkedList<List<LocalDateTime>>();
+        freeTimeList.add(Arrays.asList(startDate, endDate));
+        for (Event event : eventSet) {
+            ListIterator<List<LocalDateTime>> it = freeTimeList.listIterator();
+            while (it.hasNext()) {
+                List<LocalDateTime> interval = it.next();
+                LocalDateTime intervalStartPlus = interval.get(0).plusMinutes(MINUTE_INTERVAL);
+                LocalDateTime intervalEndMinus = interval.get(1).minusMinutes(MINUTE_INTERVAL);
+                boolean startAfterStartPlus = !event.getStartDate().isBefore(intervalStartPlus);
+                boolean endBeforeEndMinus = !event.getEndDate().isAfter(intervalEndMinus);
+                if (event.getStartDate().isBefore(intervalStartPlus) && event.getEndDate().isAfter(intervalEndMinus)) {
+                    it.remove();
+                    continue;
+                }
+                if (event.getStartDate().isBefore(intervalStartPlus) && event.getEndDate().isAfter(interval.get(0)) && endBeforeEndMinus)
+                    freeTimeList.get(freeTimeList.indexOf(interval)).set(0, event.getEndDate());
+                startAfterStartPlus = !event.getStartDate().isBefore(interval.get(0).plusMinutes(MINUTE_INTERVAL));
+                if (startAfterStartPlus && event.getStartDate().isBefore(interval.get(1))
+                        && event.getEndDate().isAfter(interval.get(1).minusMinutes(MINUTE_INTERVAL)))
+                    freeTimeList.get(freeTimeList.indexOf(interval)).set(1, event.getStartDate());
+                startAfterStartPlus = !event.getStartDate().isBefore(interval.get(0).plusMinutes(MINUTE_INTERVAL));
+                endBeforeEndMinus = !event.getEndDate().isAfter(interval.get(1).minusMinutes(MINUTE_INTERVAL));
+                if (startAfterStartPlus && endBeforeEndMinus) {
+                    it.add(Arrays.asList(event.getEndDate(), interval.get(1)));
+                    freeTimeList.get(freeTimeList.indexOf(interval)).set(1, event.getStartDate());
+                }
+            }
+        }
+        return new ArrayList<List<LocalDateTime>>(freeTimeList);
+    }
+}
@@ -0,0 +1,39 @@
+package com.diosoft.calendar.server.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void testPercentiles() {
+
+        LatencyRecorder recorder = new LatencyRecorder("test");
+        for (long nanos = 1; nanos <= 1000; nanos++) recorder.record(nanos * 1000);
+
+        assertEquals(1000, recorder.getCount());
+        assertEquals(500500, recorder.getMeanNanos());
+        assertEquals(1000000, recorder.getMaxNanos());
+//  bucket bounds are exact to 12.5%
+        long p50 = recorder.getPercentileNanos(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125);
+        long p99 = recorder.getPercentileNanos(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+    }
+
+    @Test
+    public void testEmpty() {
+
+        LatencyRecorder recorder = new LatencyRecorder("test");
+
+        assertEquals(0, recorder.getCount());
+        assertEquals(0, recorder.getPercentileNanos(99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileOutOfRange() {
+
+        new LatencyRecorder("test").getPercentileNanos(101);
+    }
+}